@@ -1,28 +1,49 @@
 package com.xwray.groupie;
 
+import android.os.Handler;
+import android.os.Looper;
 import androidx.annotation.MainThread;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.recyclerview.widget.DiffUtil;
-import androidx.recyclerview.widget.ListUpdateCallback;
 
 import java.util.Collection;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A wrapper around {@link DiffUtil} that calculates diff in a background thread
  */
 class AsyncDiffUtil {
-    interface Callback extends ListUpdateCallback {
+    interface Callback {
         /**
-         * Called on the main thread before DiffUtil dispatches the result
+         * Called on the main thread with the result of the latest diff, which the callback should
+         * apply by replacing its groups and dispatching the diff result
          */
         @MainThread
-        void onDispatchAsyncResult(@NonNull Collection<? extends Group> newGroups);
+        void onDispatchAsyncResult(@NonNull Collection<? extends Group> newGroups, @NonNull ListDiff diffResult);
     }
 
     private final Callback asyncDiffUtilCallback;
-    private int maxScheduledGeneration;
+    private volatile int maxScheduledGeneration;
     private Collection<? extends Group> groups;
+    @Nullable private DiffTask latestTask;
+    private long quietPeriodMillis = 0;
+    /**
+     * Submission of the latest task once the quiet period has passed, or null if none is waiting.
+     */
+    @Nullable private ScheduledFuture<?> pendingSubmission;
+
+    /**
+     * Null until first used, so that the defaults are only created if they're needed.
+     */
+    @Nullable private Executor backgroundExecutor;
+    @Nullable private Executor mainThreadExecutor;
 
     AsyncDiffUtil(@NonNull Callback callback) {
         this.asyncDiffUtilCallback = callback;
@@ -42,13 +63,110 @@ class AsyncDiffUtil {
         return maxScheduledGeneration;
     }
 
+    /**
+     * @param backgroundExecutor Executor on which diffs are calculated
+     * @param mainThreadExecutor Executor on which results are dispatched.  Must run tasks on the
+     *                           thread which owns the adapter, in the order they were submitted.
+     */
+    void setExecutors(@NonNull Executor backgroundExecutor, @NonNull Executor mainThreadExecutor) {
+        this.backgroundExecutor = backgroundExecutor;
+        this.mainThreadExecutor = mainThreadExecutor;
+    }
+
+    /**
+     * @param quietPeriodMillis How long to wait before submitting a diff to the background executor.
+     *                          A diff which is superseded while waiting is never submitted, so that
+     *                          only the latest of a burst of updates is calculated.
+     */
+    void setQuietPeriod(long quietPeriodMillis) {
+        this.quietPeriodMillis = quietPeriodMillis;
+    }
+
     void calculateDiff(@NonNull Collection<? extends Group> newGroups,
-                       @NonNull DiffUtil.Callback diffUtilCallback,
-                       @Nullable OnAsyncUpdateListener onAsyncUpdateListener,
-                       boolean detectMoves) {
+                       @NonNull PendingDiff pendingDiff,
+                       @Nullable OnAsyncUpdateListener onAsyncUpdateListener) {
         groups = newGroups;
         // incrementing generation means any currently-running diffs are discarded when they finish
         final int runGeneration = ++maxScheduledGeneration;
-        new DiffTask(this, diffUtilCallback, runGeneration, detectMoves, onAsyncUpdateListener).execute();
+        // and cancelling the latest stops it early, whether it's queued, waiting or diffing
+        if (latestTask != null) {
+            latestTask.cancel();
+        }
+        if (pendingSubmission != null) {
+            pendingSubmission.cancel(false);
+            pendingSubmission = null;
+        }
+        final DiffTask task = new DiffTask(this, pendingDiff, getMainThreadExecutor(), runGeneration,
+                onAsyncUpdateListener);
+        latestTask = task;
+        final Executor backgroundExecutor = getBackgroundExecutor();
+        if (quietPeriodMillis <= 0) {
+            backgroundExecutor.execute(task);
+            return;
+        }
+        // Wait on a timer rather than in the task, so that no diffing thread is held meanwhile
+        pendingSubmission = QuietPeriodScheduler.INSTANCE.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (!task.isCancelled()) {
+                    backgroundExecutor.execute(task);
+                }
+            }
+        }, quietPeriodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @NonNull
+    Executor getBackgroundExecutor() {
+        if (backgroundExecutor == null) {
+            backgroundExecutor = DefaultBackgroundExecutor.INSTANCE;
+        }
+        return backgroundExecutor;
+    }
+
+    @NonNull
+    Executor getMainThreadExecutor() {
+        if (mainThreadExecutor == null) {
+            mainThreadExecutor = new MainThreadExecutor();
+        }
+        return mainThreadExecutor;
+    }
+
+    /**
+     * A single thread shared by all adapters, so that diffs don't queue behind unrelated work on
+     * the app's other executors.
+     */
+    private static final class DefaultBackgroundExecutor {
+        static final ExecutorService INSTANCE = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull Runnable runnable) {
+                Thread thread = new Thread(runnable, "groupie-diff");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * A timer thread shared by all adapters, which only hands diffs over to their executors once
+     * their quiet period has passed.
+     */
+    private static final class QuietPeriodScheduler {
+        static final ScheduledExecutorService INSTANCE = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull Runnable runnable) {
+                Thread thread = new Thread(runnable, "groupie-diff-scheduler");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    private static final class MainThreadExecutor implements Executor {
+        private final Handler handler = new Handler(Looper.getMainLooper());
+
+        @Override
+        public void execute(@NonNull Runnable command) {
+            handler.post(command);
+        }
     }
 }
@@ -0,0 +1,378 @@
+package com.xwray.groupie;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.DiffUtil;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A {@link DiffUtil.Callback} which compares the items of two lists of groups.
+ * <p>
+ * Both lists are flattened into arrays of items when the callback is created, so every
+ * comparison made by the diff is a direct array lookup instead of a walk through the group tree.
+ * <p>
+ * Item comparisons are made using:
+ * - Item.isSameAs(Item otherItem) (are items the same?)
+ * - Item.getContentHash() if both items have one, otherwise Item.equals() (are contents the same?)
+ */
+class DiffCallback extends DiffUtil.Callback {
+
+    /**
+     * Polled while diffing, so that a diff whose result is no longer wanted can stop early.
+     */
+    interface CancellationCheck {
+        boolean isCancelled();
+    }
+
+    private static final int CANCELLATION_CHECK_INTERVAL = 1024;
+
+    private static final Map<Class<?>, Boolean> OVERRIDES_IS_SAME_AS = new ConcurrentHashMap<>();
+
+    private final Item[] oldItems;
+    private final Item[] newItems;
+
+    /**
+     * The view type and id of each item, read on the first comparison, so that comparing items
+     * which use the default {@link Item#isSameAs(Item)} doesn't call any of their methods.
+     */
+    private int[] oldViewTypes;
+    private int[] newViewTypes;
+    private long[] oldIds;
+    private long[] newIds;
+    /**
+     * Whether each new item overrides isSameAs(), which is then called instead of comparing keys.
+     * Only the new item's implementation matters, since it's the one called.  Null if none do.
+     */
+    @Nullable
+    private boolean[] newItemOverridesIsSameAs;
+    private boolean isKeysRead = false;
+
+    /**
+     * The items of each list indexed by key, built on first use and shared by the bulk update
+     * estimate and {@link UniqueKeyDiff}.  Null if two items in the list have the same key.
+     */
+    @Nullable
+    private UniqueKeyDiff.KeyIndex oldKeyIndex;
+    @Nullable
+    private UniqueKeyDiff.KeyIndex newKeyIndex;
+    private boolean isOldKeyIndexBuilt = false;
+    private boolean isNewKeyIndexBuilt = false;
+
+    /**
+     * The content hash of each item, read on the first content comparison, which is usually on
+     * the diffing thread.  Null if no item in the list has a content hash.
+     */
+    @Nullable
+    private long[] oldContentHashes;
+    @Nullable
+    private long[] newContentHashes;
+    private boolean isContentHashesRead = false;
+
+    @Nullable
+    private CancellationCheck cancellationCheck;
+    private int comparisonCount = 0;
+
+    DiffCallback(@NonNull Collection<? extends Group> oldGroups, @NonNull Collection<? extends Group> newGroups) {
+        this.oldItems = flatten(oldGroups);
+        this.newItems = flatten(newGroups);
+    }
+
+    /**
+     * Flatten snapshots of the old and new groups, which may be done on any thread.
+     */
+    DiffCallback(@NonNull GroupSnapshot oldSnapshot, @NonNull GroupSnapshot newSnapshot) {
+        this(oldSnapshot.getItems(), newSnapshot.getItems());
+    }
+
+    private DiffCallback(@NonNull Item[] oldItems, @NonNull Item[] newItems) {
+        this.oldItems = oldItems;
+        this.newItems = newItems;
+    }
+
+    /**
+     * @return A callback over part of each list, which shares this callback's cancellation check.
+     * The keys and content hashes already read are sliced rather than read from the items again.
+     */
+    @NonNull
+    DiffCallback window(int oldStart, int oldEnd, int newStart, int newEnd) {
+        final DiffCallback window = new DiffCallback(Arrays.copyOfRange(oldItems, oldStart, oldEnd),
+                Arrays.copyOfRange(newItems, newStart, newEnd));
+        if (isKeysRead) {
+            window.oldViewTypes = Arrays.copyOfRange(oldViewTypes, oldStart, oldEnd);
+            window.oldIds = Arrays.copyOfRange(oldIds, oldStart, oldEnd);
+            window.newViewTypes = Arrays.copyOfRange(newViewTypes, newStart, newEnd);
+            window.newIds = Arrays.copyOfRange(newIds, newStart, newEnd);
+            window.newItemOverridesIsSameAs = sliceIfAnySet(newItemOverridesIsSameAs, newStart, newEnd);
+            window.isKeysRead = true;
+        }
+        if (isContentHashesRead) {
+            window.oldContentHashes = oldContentHashes == null ? null
+                    : Arrays.copyOfRange(oldContentHashes, oldStart, oldEnd);
+            window.newContentHashes = newContentHashes == null ? null
+                    : Arrays.copyOfRange(newContentHashes, newStart, newEnd);
+            window.isContentHashesRead = true;
+        }
+        window.setCancellationCheck(cancellationCheck);
+        return window;
+    }
+
+    /**
+     * @return The part of the flags from start to end, or null if none of them is set
+     */
+    @Nullable
+    private static boolean[] sliceIfAnySet(@Nullable boolean[] flags, int start, int end) {
+        if (flags == null) return null;
+        for (int i = start; i < end; i++) {
+            if (flags[i]) return Arrays.copyOfRange(flags, start, end);
+        }
+        return null;
+    }
+
+    @NonNull
+    Item[] getOldItems() {
+        return oldItems;
+    }
+
+    @NonNull
+    Item[] getNewItems() {
+        return newItems;
+    }
+
+    @NonNull
+    int[] getOldViewTypes() {
+        readKeys();
+        return oldViewTypes;
+    }
+
+    @NonNull
+    int[] getNewViewTypes() {
+        readKeys();
+        return newViewTypes;
+    }
+
+    @NonNull
+    long[] getOldIds() {
+        readKeys();
+        return oldIds;
+    }
+
+    @NonNull
+    long[] getNewIds() {
+        readKeys();
+        return newIds;
+    }
+
+    /**
+     * @return The old items indexed by key, or null if two of them have the same key
+     */
+    @Nullable
+    UniqueKeyDiff.KeyIndex getOldKeyIndex() {
+        if (!isOldKeyIndexBuilt) {
+            oldKeyIndex = UniqueKeyDiff.KeyIndex.of(getOldIds(), getOldViewTypes());
+            isOldKeyIndexBuilt = true;
+        }
+        return oldKeyIndex;
+    }
+
+    /**
+     * @return The new items indexed by key, or null if two of them have the same key
+     */
+    @Nullable
+    UniqueKeyDiff.KeyIndex getNewKeyIndex() {
+        if (!isNewKeyIndexBuilt) {
+            newKeyIndex = UniqueKeyDiff.KeyIndex.of(getNewIds(), getNewViewTypes());
+            isNewKeyIndexBuilt = true;
+        }
+        return newKeyIndex;
+    }
+
+    /**
+     * @return Whether any new item overrides isSameAs(), so that keys alone don't decide which items are the same
+     */
+    boolean anyNewItemOverridesIsSameAs() {
+        readKeys();
+        return newItemOverridesIsSameAs != null;
+    }
+
+    private void readKeys() {
+        if (isKeysRead) return;
+        oldViewTypes = new int[oldItems.length];
+        oldIds = new long[oldItems.length];
+        for (int i = 0; i < oldItems.length; i++) {
+            oldViewTypes[i] = oldItems[i].getViewType();
+            oldIds[i] = oldItems[i].getId();
+        }
+        newViewTypes = new int[newItems.length];
+        newIds = new long[newItems.length];
+        Class<?> lastClass = null;
+        boolean lastClassOverrides = false;
+        for (int i = 0; i < newItems.length; i++) {
+            final Item item = newItems[i];
+            newViewTypes[i] = item.getViewType();
+            newIds[i] = item.getId();
+            if (item.getClass() != lastClass) {
+                lastClass = item.getClass();
+                lastClassOverrides = overridesIsSameAs(lastClass);
+            }
+            if (lastClassOverrides) {
+                if (newItemOverridesIsSameAs == null) newItemOverridesIsSameAs = new boolean[newItems.length];
+                newItemOverridesIsSameAs[i] = true;
+            }
+        }
+        isKeysRead = true;
+    }
+
+    /**
+     * @return Whether items of the class have their own implementation of {@link Item#isSameAs(Item)}
+     */
+    static boolean overridesIsSameAs(@NonNull Class<?> itemClass) {
+        Boolean overrides = OVERRIDES_IS_SAME_AS.get(itemClass);
+        if (overrides == null) {
+            try {
+                overrides = itemClass.getMethod("isSameAs", Item.class).getDeclaringClass() != Item.class;
+            } catch (NoSuchMethodException e) {
+                overrides = true;
+            }
+            OVERRIDES_IS_SAME_AS.put(itemClass, overrides);
+        }
+        return overrides;
+    }
+
+    void setCancellationCheck(@Nullable CancellationCheck cancellationCheck) {
+        this.cancellationCheck = cancellationCheck;
+    }
+
+    /**
+     * @throws CancellationException if the diff has been cancelled
+     */
+    private void checkCancelled() {
+        if (cancellationCheck != null
+                && ++comparisonCount % CANCELLATION_CHECK_INTERVAL == 0
+                && cancellationCheck.isCancelled()) {
+            throw new CancellationException();
+        }
+    }
+
+    @Override
+    public int getOldListSize() {
+        return oldItems.length;
+    }
+
+    @Override
+    public int getNewListSize() {
+        return newItems.length;
+    }
+
+    @Override
+    public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+        checkCancelled();
+        readKeys();
+        if (newItemOverridesIsSameAs != null && newItemOverridesIsSameAs[newItemPosition]) {
+            Item oldItem = oldItems[oldItemPosition];
+            Item newItem = newItems[newItemPosition];
+            return newItem.isSameAs(oldItem);
+        }
+        return newViewTypes[newItemPosition] == oldViewTypes[oldItemPosition]
+                && newIds[newItemPosition] == oldIds[oldItemPosition];
+    }
+
+    @Override
+    public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+        checkCancelled();
+        if (!isContentHashesRead) {
+            oldContentHashes = getContentHashes(oldItems);
+            newContentHashes = getContentHashes(newItems);
+            isContentHashesRead = true;
+        }
+        if (oldContentHashes != null && newContentHashes != null) {
+            final long oldContentHash = oldContentHashes[oldItemPosition];
+            final long newContentHash = newContentHashes[newItemPosition];
+            if (oldContentHash != Item.NO_CONTENT_HASH && newContentHash != Item.NO_CONTENT_HASH) {
+                return oldContentHash == newContentHash;
+            }
+        }
+        Item oldItem = oldItems[oldItemPosition];
+        Item newItem = newItems[newItemPosition];
+        return newItem.equals(oldItem);
+    }
+
+    /**
+     * @return Whether the items are the same and so are their contents.  The same instance isn't
+     * assumed to be unchanged, since an item may report a change by never equalling itself.
+     */
+    boolean isUnchanged(int oldItemPosition, int newItemPosition) {
+        return areItemsTheSame(oldItemPosition, newItemPosition)
+                && areContentsTheSame(oldItemPosition, newItemPosition);
+    }
+
+    /**
+     * @return The content hash of each item, or null if none of them has one
+     */
+    @Nullable
+    private static long[] getContentHashes(@NonNull Item[] items) {
+        long[] contentHashes = null;
+        for (int i = 0; i < items.length; i++) {
+            final long contentHash = items[i].getContentHash();
+            if (contentHash != Item.NO_CONTENT_HASH && contentHashes == null) {
+                contentHashes = new long[items.length];
+                Arrays.fill(contentHashes, 0, i, Item.NO_CONTENT_HASH);
+            }
+            if (contentHashes != null) contentHashes[i] = contentHash;
+        }
+        return contentHashes;
+    }
+
+    @Nullable
+    @Override
+    public Object getChangePayload(int oldItemPosition, int newItemPosition) {
+        Item oldItem = oldItems[oldItemPosition];
+        Item newItem = newItems[newItemPosition];
+        return oldItem.getChangePayload(newItem);
+    }
+
+    /**
+     * @return The items of the groups, in adapter order
+     */
+    @NonNull
+    static Item[] flatten(@NonNull Collection<? extends Group> groups) {
+        int itemCount = 0;
+        for (Group group : groups) {
+            itemCount += group.getItemCount();
+        }
+        Item[] items = new Item[itemCount];
+        int position = 0;
+        for (Group group : groups) {
+            position = flatten(group, items, position);
+        }
+        return items;
+    }
+
+    /**
+     * Copy the items of a group into the array, descending into nested groups directly rather than
+     * looking up each position from the top of the group.
+     *
+     * @return The position after the last item copied
+     */
+    private static int flatten(@NonNull Group group, @NonNull Item[] items, int position) {
+        if (group instanceof Item) {
+            items[position] = (Item) group;
+            return position + 1;
+        }
+        if (group instanceof NestedGroup) {
+            NestedGroup nestedGroup = (NestedGroup) group;
+            for (int i = 0; i < nestedGroup.getGroupCount(); i++) {
+                position = flatten(nestedGroup.getGroup(i), items, position);
+            }
+            return position;
+        }
+        for (int i = 0; i < group.getItemCount(); i++) {
+            items[position++] = group.getItem(i);
+        }
+        return position;
+    }
+}
@@ -0,0 +1,231 @@
+package com.xwray.groupie;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListUpdateCallback;
+
+/**
+ * Calculates the diff between the old and new items of a {@link DiffCallback} using a
+ * {@link DiffStrategy}.
+ * <p>
+ * Runs of unchanged items at the start and end of both lists are stripped first, and only the
+ * window between them is diffed.  Appending or prepending items, the most common updates, then
+ * become a single insert without running the diff at all.
+ * <p>
+ * Before diffing the window, the fraction of its items which changed can be estimated from a
+ * sample of their keys.  Past a threshold, the diff is skipped and the whole window is replaced
+ * with one removal and one insertion, which is cheaper than both diffing and animating a list
+ * that was mostly replaced or reordered.
+ */
+final class DiffEngine {
+
+    /**
+     * The bulk update threshold which never skips the diff, since the estimate can't exceed it.
+     */
+    static final float NO_BULK_UPDATE = 1f;
+
+    /**
+     * How many keys are sampled from each side of the window to estimate the changed fraction.
+     * Windows smaller than this are always diffed.
+     */
+    private static final int BULK_UPDATE_SAMPLE_SIZE = 64;
+
+    private DiffEngine() {
+    }
+
+    /**
+     * @param bulkUpdateThreshold The estimated fraction of changed items above which the diff is
+     *                            skipped, or {@link #NO_BULK_UPDATE}
+     */
+    @NonNull
+    static ListDiff calculateDiff(@NonNull DiffCallback callback, @NonNull DiffStrategy strategy, boolean detectMoves,
+                                  float bulkUpdateThreshold) {
+        final int oldSize = callback.getOldListSize();
+        final int newSize = callback.getNewListSize();
+        int prefix = 0;
+        while (prefix < oldSize && prefix < newSize && callback.isUnchanged(prefix, prefix)) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < oldSize - prefix && suffix < newSize - prefix
+                && callback.isUnchanged(oldSize - 1 - suffix, newSize - 1 - suffix)) {
+            suffix++;
+        }
+
+        final int oldCount = oldSize - prefix - suffix;
+        final int newCount = newSize - prefix - suffix;
+        if (oldCount == 0 || newCount == 0) {
+            return new RangeDiff(prefix, oldCount, newCount, false);
+        }
+        final DiffCallback window = prefix == 0 && suffix == 0
+                ? callback
+                : callback.window(prefix, oldSize - suffix, prefix, newSize - suffix);
+        if (bulkUpdateThreshold < NO_BULK_UPDATE
+                && estimateChangedFraction(window, detectMoves) > bulkUpdateThreshold) {
+            return new RangeDiff(prefix, oldCount, newCount, true);
+        }
+        final ListDiff diff = calculateWindow(window, strategy, detectMoves);
+        return prefix == 0 ? diff : offset(diff, prefix);
+    }
+
+    /**
+     * @return Whether the diff skipped the fine-grained changes in favour of one removal and one insertion
+     */
+    static boolean isBulk(@NonNull ListDiff diff) {
+        if (diff instanceof RangeDiff) return ((RangeDiff) diff).isBulk;
+        if (diff instanceof HierarchicalDiff) return ((HierarchicalDiff) diff).isBulk();
+        return false;
+    }
+
+    /**
+     * Estimate the fraction of items which would be removed, inserted or moved from an evenly
+     * spaced sample of keys on each side.
+     *
+     * @return The estimate between 0 and 1, or 0 if the window is too small to sample or the
+     * items can't be matched by key
+     */
+    static float estimateChangedFraction(@NonNull DiffCallback callback, boolean detectMoves) {
+        final int oldSize = callback.getOldListSize();
+        final int newSize = callback.getNewListSize();
+        if (Math.min(oldSize, newSize) < BULK_UPDATE_SAMPLE_SIZE || callback.anyNewItemOverridesIsSameAs()) {
+            return 0f;
+        }
+        final long[] oldIds = callback.getOldIds();
+        final int[] oldViewTypes = callback.getOldViewTypes();
+        final long[] newIds = callback.getNewIds();
+        final int[] newViewTypes = callback.getNewViewTypes();
+        // Built once per callback, so the diff which follows reuses the old index
+        final UniqueKeyDiff.KeyIndex oldIndex = callback.getOldKeyIndex();
+        final UniqueKeyDiff.KeyIndex newIndex = callback.getNewKeyIndex();
+        if (oldIndex == null || newIndex == null) return 0f;
+
+        int removed = 0;
+        for (int k = 0; k < BULK_UPDATE_SAMPLE_SIZE; k++) {
+            final int i = (int) ((long) k * oldSize / BULK_UPDATE_SAMPLE_SIZE);
+            if (newIndex.get(oldIds[i], oldViewTypes[i]) < 0) removed++;
+        }
+        int inserted = 0;
+        final int[] matchedOldIndices = new int[BULK_UPDATE_SAMPLE_SIZE];
+        int matchedCount = 0;
+        for (int k = 0; k < BULK_UPDATE_SAMPLE_SIZE; k++) {
+            final int j = (int) ((long) k * newSize / BULK_UPDATE_SAMPLE_SIZE);
+            final int i = oldIndex.get(newIds[j], newViewTypes[j]);
+            if (i < 0) {
+                inserted++;
+            } else {
+                matchedOldIndices[matchedCount++] = i;
+            }
+        }
+        int moved = 0;
+        if (detectMoves && matchedCount > 0) {
+            // Matched items whose old order isn't kept would be dispatched as moves
+            final int[] oldOrder = new int[matchedCount];
+            System.arraycopy(matchedOldIndices, 0, oldOrder, 0, matchedCount);
+            for (boolean isKept : UniqueKeyDiff.longestIncreasingSubsequence(oldOrder)) {
+                if (!isKept) moved++;
+            }
+        }
+        return Math.max(removed, inserted + moved) / (float) BULK_UPDATE_SAMPLE_SIZE;
+    }
+
+    @NonNull
+    private static ListDiff calculateWindow(@NonNull DiffCallback callback, @NonNull DiffStrategy strategy,
+                                            boolean detectMoves) {
+        if (strategy == DiffStrategy.UNIQUE_KEYS) {
+            final ListDiff diff = UniqueKeyDiff.calculate(callback, detectMoves);
+            if (diff != null) return diff;
+        }
+        return wrap(DiffUtil.calculateDiff(callback, detectMoves));
+    }
+
+    /**
+     * @return A diff of the callback's items which can be calculated later, on another thread
+     */
+    @NonNull
+    static PendingDiff pending(@NonNull final DiffCallback callback, @NonNull final DiffStrategy strategy,
+                               final boolean detectMoves, final float bulkUpdateThreshold) {
+        return new PendingDiff() {
+            @Override
+            public void setCancellationCheck(@Nullable DiffCallback.CancellationCheck cancellationCheck) {
+                callback.setCancellationCheck(cancellationCheck);
+            }
+
+            @NonNull
+            @Override
+            public ListDiff calculate() {
+                return calculateDiff(callback, strategy, detectMoves, bulkUpdateThreshold);
+            }
+        };
+    }
+
+    /**
+     * Like {@link #pending(DiffCallback, DiffStrategy, boolean, float)}, but the snapshots are only
+     * flattened into a callback when the diff is calculated, on the diffing thread.
+     */
+    @NonNull
+    static PendingDiff pending(@NonNull final GroupSnapshot oldSnapshot, @NonNull final GroupSnapshot newSnapshot,
+                               @NonNull final DiffStrategy strategy, final boolean detectMoves,
+                               final float bulkUpdateThreshold) {
+        return new PendingDiff() {
+            @Nullable
+            private DiffCallback.CancellationCheck cancellationCheck;
+
+            @Override
+            public void setCancellationCheck(@Nullable DiffCallback.CancellationCheck cancellationCheck) {
+                this.cancellationCheck = cancellationCheck;
+            }
+
+            @NonNull
+            @Override
+            public ListDiff calculate() {
+                final DiffCallback callback = new DiffCallback(oldSnapshot, newSnapshot);
+                callback.setCancellationCheck(cancellationCheck);
+                return calculateDiff(callback, strategy, detectMoves, bulkUpdateThreshold);
+            }
+        };
+    }
+
+    @NonNull
+    private static ListDiff offset(@NonNull final ListDiff diff, final int offset) {
+        return new ListDiff() {
+            @Override
+            public void dispatchUpdatesTo(@NonNull ListUpdateCallback updateCallback) {
+                diff.dispatchUpdatesTo(new OffsetListUpdateCallback(updateCallback, offset));
+            }
+        };
+    }
+
+    @NonNull
+    static ListDiff wrap(@NonNull final DiffUtil.DiffResult diffResult) {
+        return new ListDiff() {
+            @Override
+            public void dispatchUpdatesTo(@NonNull ListUpdateCallback updateCallback) {
+                diffResult.dispatchUpdatesTo(updateCallback);
+            }
+        };
+    }
+
+    /**
+     * A diff which removes and then inserts a range of items at the same position.
+     */
+    private static final class RangeDiff implements ListDiff {
+        private final int position;
+        private final int removedCount;
+        private final int insertedCount;
+        final boolean isBulk;
+
+        RangeDiff(int position, int removedCount, int insertedCount, boolean isBulk) {
+            this.position = position;
+            this.removedCount = removedCount;
+            this.insertedCount = insertedCount;
+            this.isBulk = isBulk;
+        }
+
+        @Override
+        public void dispatchUpdatesTo(@NonNull ListUpdateCallback updateCallback) {
+            if (removedCount > 0) updateCallback.onRemoved(position, removedCount);
+            if (insertedCount > 0) updateCallback.onInserted(position, insertedCount);
+        }
+    }
+}
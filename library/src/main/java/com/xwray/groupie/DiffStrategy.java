@@ -0,0 +1,26 @@
+package com.xwray.groupie;
+
+/**
+ * The algorithm used to diff the old and new items when a {@link GroupAdapter} or {@link Section}
+ * is updated with a new list of groups.
+ */
+public enum DiffStrategy {
+
+    /**
+     * Diff using {@link androidx.recyclerview.widget.DiffUtil}, which finds the fewest changes
+     * in O((N + M) * D) time, where D is the number of changes.  Works with any implementation of
+     * {@link Item#isSameAs(Item)}.  This is the default.
+     */
+    MYERS,
+
+    /**
+     * Diff by matching items on their view type and {@link Item#getId()}, in O(N log N) time no
+     * matter how many items were moved, which is much faster than {@link #MYERS} for large
+     * reorderings such as re-sorting a list.
+     * <p>
+     * Falls back to {@link #MYERS} if two items in the same list have the same view type and id,
+     * or if any item overrides {@link Item#isSameAs(Item)}, since the id is then no longer a
+     * reliable key.
+     */
+    UNIQUE_KEYS
+}
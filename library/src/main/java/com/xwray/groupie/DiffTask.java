@@ -1,69 +1,93 @@
 package com.xwray.groupie;
 
-import android.os.AsyncTask;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
-import androidx.recyclerview.widget.DiffUtil;
 
 import java.lang.ref.WeakReference;
 import java.util.Collection;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
 
 /**
- * An async task implementation that runs {@link DiffUtil#calculateDiff(DiffUtil.Callback)}
- * in a background thread. This task will call {@link AsyncDiffUtil.Callback#onDispatchAsyncResult(Collection)}
- * passing the new list just before dispatching the diff result to the provided
- * {@link DiffUtil.Callback} so that the new list.
- * <p>This task is executed via {@link AsyncDiffUtil#calculateDiff(Collection, DiffUtil.Callback, OnAsyncUpdateListener, boolean)}.
+ * A task that calculates a {@link PendingDiff} on a background executor. This task will call
+ * {@link AsyncDiffUtil.Callback#onDispatchAsyncResult(Collection, ListDiff)} on the main thread executor with the new list and the diff result, unless a newer diff has been
+ * scheduled in the meantime.
+ * <p>This task is executed via {@link AsyncDiffUtil#calculateDiff(Collection, PendingDiff, OnAsyncUpdateListener)}.
+ * <p>Once a newer diff is scheduled this task is cancelled: it doesn't start if it hasn't already, and
+ * otherwise stops at the next cancellation check in the diff.
  */
-class DiffTask extends AsyncTask<Void, Void, DiffUtil.DiffResult> {
-    @NonNull private final DiffUtil.Callback diffCallback;
+class DiffTask implements Runnable, DiffCallback.CancellationCheck {
+    @NonNull private final PendingDiff pendingDiff;
+    @NonNull private final Executor mainThreadExecutor;
     private final WeakReference<AsyncDiffUtil> asyncListDiffer;
     private final int runGeneration;
-    private final boolean detectMoves;
+    private volatile boolean isCancelled = false;
     @Nullable private WeakReference<OnAsyncUpdateListener> onAsyncUpdateListener;
-    private Exception backgroundException = null;
 
     DiffTask(@NonNull AsyncDiffUtil asyncDiffUtil,
-             @NonNull DiffUtil.Callback callback,
+             @NonNull PendingDiff pendingDiff,
+             @NonNull Executor mainThreadExecutor,
              int runGeneration,
-             boolean detectMoves,
              @Nullable OnAsyncUpdateListener onAsyncUpdateListener) {
-        this.diffCallback = callback;
+        this.pendingDiff = pendingDiff;
+        this.mainThreadExecutor = mainThreadExecutor;
         this.asyncListDiffer = new WeakReference<>(asyncDiffUtil);
         this.runGeneration = runGeneration;
-        this.detectMoves = detectMoves;
         if (onAsyncUpdateListener != null) {
             this.onAsyncUpdateListener = new WeakReference<>(onAsyncUpdateListener);
         }
+        pendingDiff.setCancellationCheck(this);
+    }
+
+    /**
+     * Stop this task as soon as possible, without dispatching a result.  Called on the main thread.
+     */
+    void cancel() {
+        isCancelled = true;
     }
 
     @Override
-    @Nullable
-    protected DiffUtil.DiffResult doInBackground(Void... voids) {
-        try {
-            return DiffUtil.calculateDiff(diffCallback, detectMoves);
-        } catch (Exception e) {
-            backgroundException = e;
-            return null;
-        }
+    public boolean isCancelled() {
+        return isCancelled;
     }
 
     @Override
-    protected void onPostExecute(@Nullable DiffUtil.DiffResult diffResult) {
-        if (backgroundException != null) {
-            throw new RuntimeException(backgroundException);
+    public void run() {
+        if (isCancelled) return;
+
+        final ListDiff diffResult;
+        try {
+            diffResult = pendingDiff.calculate();
+        } catch (CancellationException e) {
+            return;
+        } catch (final Exception e) {
+            mainThreadExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    throw new RuntimeException(e);
+                }
+            });
+            return;
         }
+        mainThreadExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                dispatchResult(diffResult);
+            }
+        });
+    }
+
+    private void dispatchResult(@NonNull ListDiff diffResult) {
         AsyncDiffUtil async = asyncListDiffer.get();
-        if (shouldDispatchResult(diffResult, async)) {
-            async.getAsyncDiffUtilCallback().onDispatchAsyncResult(async.getGroups());
-            diffResult.dispatchUpdatesTo(async.getAsyncDiffUtilCallback());
+        if (shouldDispatchResult(async)) {
+            async.getAsyncDiffUtilCallback().onDispatchAsyncResult(async.getGroups(), diffResult);
             if (onAsyncUpdateListener != null && onAsyncUpdateListener.get() != null) {
                 onAsyncUpdateListener.get().onUpdateComplete();
             }
         }
     }
 
-    private boolean shouldDispatchResult(@Nullable DiffUtil.DiffResult diffResult, AsyncDiffUtil async) {
-        return diffResult != null && async != null && runGeneration == async.getMaxScheduledGeneration();
+    private boolean shouldDispatchResult(@Nullable AsyncDiffUtil async) {
+        return async != null && runGeneration == async.getMaxScheduledGeneration();
     }
 }
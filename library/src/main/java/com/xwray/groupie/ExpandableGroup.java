@@ -2,7 +2,9 @@ package com.xwray.groupie;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import androidx.annotation.NonNull;
 
@@ -93,19 +95,54 @@ public class ExpandableGroup extends NestedGroup {
         }
     }
 
+    /**
+     * Remove the groups in one pass over the children, notifying each contiguous run of removed
+     * items as a single range.  Like {@link #remove(Group)}, children are matched with equals(),
+     * and every child equal to one of the groups is removed.  Nothing is removed unless all of the
+     * groups are children.
+     */
     @Override
     public void removeAll(@NonNull Collection<? extends Group> groups) {
-        if (groups.isEmpty() || !this.children.containsAll(groups)) return;
-        super.removeAll(groups);
+        if (groups.isEmpty()) return;
+        final Set<Group> groupsToRemove = new HashSet<>(groups);
+        final Set<Group> foundGroups = new HashSet<>();
+        final List<Group> removedGroups = new ArrayList<>();
+        for (Group group : children) {
+            if (groupsToRemove.contains(group)) {
+                foundGroups.add(group);
+                removedGroups.add(group);
+            }
+        }
+        if (foundGroups.size() < groupsToRemove.size()) return;
+        super.removeAll(removedGroups);
+
+        final List<Group> keptGroups = new ArrayList<>(children.size() - foundGroups.size());
+        // (position, count) of each run of removed items, positioned as if the earlier runs were already removed
+        final List<int[]> removedRanges = new ArrayList<>();
+        int keptItemCount = parent.getItemCount();
+        int removedRunItemCount = 0;
+        for (Group group : children) {
+            if (groupsToRemove.contains(group)) {
+                removedRunItemCount += group.getItemCount();
+                continue;
+            }
+            if (removedRunItemCount > 0) {
+                removedRanges.add(new int[]{keptItemCount, removedRunItemCount});
+                removedRunItemCount = 0;
+            }
+            keptGroups.add(group);
+            keptItemCount += group.getItemCount();
+        }
+        if (removedRunItemCount > 0) {
+            removedRanges.add(new int[]{keptItemCount, removedRunItemCount});
+        }
+
+        children.clear();
+        children.addAll(keptGroups);
         if (isExpanded) {
-            this.children.removeAll(groups);
-            for (Group group : groups) {
-                int position = getItemCountBeforeGroup(group);
-                children.remove(group);
-                notifyItemRangeRemoved(position, group.getItemCount());
+            for (int[] range : removedRanges) {
+                notifyItemRangeRemoved(range[0], range[1]);
             }
-        } else {
-            this.children.removeAll(groups);
         }
     }
 
@@ -145,7 +182,8 @@ public class ExpandableGroup extends NestedGroup {
     public void onToggleExpanded() {
         int oldSize = getItemCount();
         isExpanded = !isExpanded;
-        int newSize = getItemCount();
+        // The cached item count is only updated by the notification below, so count from scratch
+        int newSize = parent.getItemCount() + (isExpanded ? getItemCount(children) : 0);
         if (oldSize > newSize) {
             notifyItemRangeRemoved(newSize, oldSize - newSize);
         } else {
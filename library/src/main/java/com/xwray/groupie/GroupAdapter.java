@@ -2,8 +2,11 @@ package com.xwray.groupie;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.collection.SparseArrayCompat;
+import androidx.recyclerview.widget.BatchingListUpdateCallback;
 import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.GridLayoutManager;
+import androidx.recyclerview.widget.ListUpdateCallback;
 import androidx.recyclerview.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -11,7 +14,11 @@ import android.view.ViewGroup;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
 
 /**
  * An adapter that holds a list of Groups.
@@ -22,14 +29,42 @@ public class GroupAdapter<VH extends ViewHolder> extends RecyclerView.Adapter<VH
     private OnItemClickListener onItemClickListener;
     private OnItemLongClickListener onItemLongClickListener;
     private int spanCount = 1;
-    private Item lastItemForViewTypeLookup;
 
-    private AsyncDiffUtil.Callback diffUtilCallbacks = new AsyncDiffUtil.Callback() {
-        @Override
-        public void onDispatchAsyncResult(@NonNull Collection<? extends Group> newGroups) {
-            setNewGroups(newGroups);
-        }
+    /**
+     * An item of each view type seen so far, used to create view holders of that type.  Created
+     * on first use, since it's only needed once the adapter is attached to a RecyclerView.
+     * <p>
+     * These are strong references: an item removed from the adapter stays reachable from here until
+     * another item of its view type is looked up, or all the groups are replaced or cleared.
+     */
+    @Nullable
+    private SparseArrayCompat<Item<VH>> viewTypePrototypes;
+
+    /**
+     * Items registered with {@link #registerViewType(Item)}, which are strongly referenced for as
+     * long as the adapter is.
+     */
+    @Nullable
+    private SparseArrayCompat<Item<VH>> registeredViewTypePrototypes;
 
+    /**
+     * Cumulative item counts of the top-level groups: groupOffsets[i] is the adapter position at
+     * which group i starts, and groupOffsets[groups.size()] is the total item count.  Rebuilt
+     * lazily whenever a group is added or removed, and shifted when one reports that its item
+     * count changed.
+     */
+    private int[] groupOffsets = new int[1];
+    private boolean isGroupOffsetsDirty = true;
+
+    /**
+     * The index of the first occurrence of each top-level group, by identity, or null if groups
+     * have been added or removed since it was last built.
+     */
+    @Nullable
+    private Map<Group, Integer> groupIndices;
+    private boolean hasDuplicateGroups;
+
+    private ListUpdateCallback diffUtilCallbacks = new ListUpdateCallback() {
         @Override
         public void onInserted(int position, int count) {
             notifyItemRangeInserted(position, count);
@@ -51,7 +86,81 @@ public class GroupAdapter<VH extends ViewHolder> extends RecyclerView.Adapter<VH
         }
     };
 
-    private AsyncDiffUtil asyncDiffUtil = new AsyncDiffUtil(diffUtilCallbacks);
+    private AsyncDiffUtil asyncDiffUtil = new AsyncDiffUtil(new AsyncDiffUtil.Callback() {
+        @Override
+        public void onDispatchAsyncResult(@NonNull Collection<? extends Group> newGroups, @NonNull ListDiff diffResult) {
+            setNewGroups(newGroups);
+            diffResult.dispatchUpdatesTo(getUpdateCallback());
+            reportUpdatePath(diffResult);
+        }
+    });
+
+    /**
+     * Merges this adapter's notifications while a batch is open, or null if none is.
+     */
+    @Nullable
+    private BatchingListUpdateCallback batchCallback;
+    private int batchDepth = 0;
+
+    private boolean isDeferUpdatesWhileDetachedEnabled = false;
+    private int attachedRecyclerViewCount = 0;
+    /**
+     * Whether anything changed while updates were deferred, so that a change must be notified
+     * when the adapter is next attached.
+     */
+    private boolean hasDeferredUpdates = false;
+
+    /**
+     * Records changes while updates are deferred, instead of notifying them.
+     */
+    private final ListUpdateCallback deferredUpdateCallback = new ListUpdateCallback() {
+        @Override
+        public void onInserted(int position, int count) {
+            hasDeferredUpdates = true;
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            hasDeferredUpdates = true;
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            hasDeferredUpdates = true;
+        }
+
+        @Override
+        public void onChanged(int position, int count, Object payload) {
+            hasDeferredUpdates = true;
+        }
+    };
+
+    private DiffStrategy diffStrategy = DiffStrategy.MYERS;
+
+    private float bulkUpdateThreshold = DiffEngine.NO_BULK_UPDATE;
+
+    @Nullable
+    private OnUpdatePathListener onUpdatePathListener;
+
+    private boolean isHierarchicalDiffEnabled = false;
+
+    @Nullable
+    private Executor parallelDiffExecutor;
+
+    /**
+     * While hierarchical or parallel diffs are enabled, the value of modificationCount when each top-level
+     * group last notified a change.  Pruned to the current groups whenever an update starts.
+     */
+    private final Map<Group, Integer> groupModificationStamps = new IdentityHashMap<>();
+    private int modificationCount = 0;
+
+    private final HierarchicalDiff.ModificationStamps modificationStamps = new HierarchicalDiff.ModificationStamps() {
+        @Override
+        public int getModificationStamp(@NonNull Group group) {
+            final Integer stamp = groupModificationStamps.get(group);
+            return stamp == null ? 0 : stamp;
+        }
+    };
 
     private final GridLayoutManager.SpanSizeLookup spanSizeLookup = new GridLayoutManager.SpanSizeLookup() {
         @Override
@@ -78,6 +187,221 @@ public class GroupAdapter<VH extends ViewHolder> extends RecyclerView.Adapter<VH
         return spanCount;
     }
 
+    /**
+     * Start buffering this adapter's change notifications, until the matching {@link #endBatch()}.
+     * Adjacent notifications are merged into ranges as they arrive, so a series of adds, removes
+     * or group changes at neighbouring positions reaches the RecyclerView as one notification.
+     * <p>
+     * Batches may be nested, in which case notifications are only dispatched once the outermost
+     * batch ends.  To also merge the notifications within a group before they reach the adapter,
+     * use {@link NestedGroup#beginBatch()}.
+     */
+    public void beginBatch() {
+        if (batchDepth++ == 0) {
+            batchCallback = new BatchingListUpdateCallback(diffUtilCallbacks);
+        }
+    }
+
+    /**
+     * End a batch started with {@link #beginBatch()}, dispatching the buffered notifications if it
+     * was the outermost one.
+     */
+    public void endBatch() {
+        if (batchDepth == 0) {
+            throw new IllegalStateException("endBatch() called without a matching beginBatch()");
+        }
+        if (--batchDepth > 0) return;
+        final BatchingListUpdateCallback callback = batchCallback;
+        batchCallback = null;
+        callback.dispatchLastEvent();
+    }
+
+    @NonNull
+    private ListUpdateCallback getUpdateCallback() {
+        if (isDeferringUpdates()) return deferredUpdateCallback;
+        return batchCallback != null ? batchCallback : diffUtilCallbacks;
+    }
+
+    /**
+     * Skip change notifications while the adapter isn't attached to any RecyclerView, such as on a
+     * page of a ViewPager which is off screen, and notify a single data set change once it's
+     * attached again.  The adapter then stops working out the adapter position of each change
+     * and notifying it, and {@link #update(Collection)} doesn't diff at all.  Nested groups still
+     * work out their own positions as each change is passed up to the adapter.
+     * <p>
+     * Only enable this if nothing else observes the adapter, since other adapter data observers
+     * miss the individual changes too.
+     *
+     * @param enabled Whether to defer updates while detached.  Defaults to false.
+     */
+    public void setDeferUpdatesWhileDetached(boolean enabled) {
+        this.isDeferUpdatesWhileDetachedEnabled = enabled;
+        if (!enabled) dispatchDeferredUpdates();
+    }
+
+    @Override
+    public void onAttachedToRecyclerView(@NonNull RecyclerView recyclerView) {
+        super.onAttachedToRecyclerView(recyclerView);
+        attachedRecyclerViewCount++;
+        dispatchDeferredUpdates();
+    }
+
+    @Override
+    public void onDetachedFromRecyclerView(@NonNull RecyclerView recyclerView) {
+        super.onDetachedFromRecyclerView(recyclerView);
+        attachedRecyclerViewCount--;
+    }
+
+    private boolean isDeferringUpdates() {
+        return isDeferUpdatesWhileDetachedEnabled && attachedRecyclerViewCount == 0;
+    }
+
+    private void dispatchDeferredUpdates() {
+        if (!hasDeferredUpdates) return;
+        hasDeferredUpdates = false;
+        notifyDataSetChanged();
+    }
+
+    /**
+     * While updates are deferred, record that a group changed instead of working out which
+     * adapter positions to notify.
+     *
+     * @param itemCountDelta How many items the change added to the group, or removed if negative
+     * @return Whether the change was deferred
+     */
+    private boolean deferChange(@NonNull Group group, int itemCountDelta) {
+        if (!isDeferringUpdates()) return false;
+        onGroupModified(group);
+        shiftGroupOffsets(group, itemCountDelta);
+        hasDeferredUpdates = true;
+        return true;
+    }
+
+    /**
+     * Set the algorithm used to diff the old and new items in {@link #update(Collection)} and
+     * {@link #updateAsync(List)}.  Defaults to {@link DiffStrategy#MYERS}.
+     *
+     * @param diffStrategy The diff strategy to use for subsequent updates
+     */
+    public void setDiffStrategy(@NonNull DiffStrategy diffStrategy) {
+        this.diffStrategy = diffStrategy;
+    }
+
+    @NonNull
+    public DiffStrategy getDiffStrategy() {
+        return diffStrategy;
+    }
+
+    /**
+     * Skip the diff in {@link #update(Collection)} and {@link #updateAsync(List)} when most items
+     * changed, and replace the changed range with one removal and one insertion instead.
+     * <p>
+     * The fraction of changed items is estimated from a sample of the view types and ids of the
+     * old and new items, counting items which would be removed, inserted or moved.  When a refresh
+     * replaces most of a long list, this saves both calculating a diff whose result is mostly
+     * noise and animating a flood of individual changes.  Ranges of unchanged items at the start
+     * and end of the list are excluded first, and lists which are too short to sample, have
+     * repeated ids or override {@link Item#isSameAs(Item)} are always diffed.
+     *
+     * @see #setOnUpdatePathListener(OnUpdatePathListener)
+     * @param threshold The estimated fraction of changed items, between 0 and 1, above which the
+     *                  diff is skipped.  Defaults to 1, which always diffs.
+     */
+    public void setBulkUpdateThreshold(float threshold) {
+        this.bulkUpdateThreshold = threshold;
+    }
+
+    /**
+     * @param listener Told whether each update was diffed or replaced in bulk, once it has been
+     *                 dispatched, or null to stop listening
+     */
+    public void setOnUpdatePathListener(@Nullable OnUpdatePathListener listener) {
+        this.onUpdatePathListener = listener;
+    }
+
+    private void reportUpdatePath(@NonNull ListDiff diffResult) {
+        if (onUpdatePathListener != null) {
+            onUpdatePathListener.onUpdatePath(DiffEngine.isBulk(diffResult) ? UpdatePath.BULK : UpdatePath.DIFF);
+        }
+    }
+
+    /**
+     * Enable hierarchical diffing in {@link #update(Collection)} and {@link #updateAsync(List)}.
+     * <p>
+     * Top-level groups which are the same instance in the old and new lists are then skipped
+     * entirely, and only the items of the groups between them are diffed.  When most groups are
+     * reused from one update to the next, such as a dashboard which refreshes one widget at a time,
+     * this turns a diff of every item into a diff of only the items which were replaced.  Items
+     * are never matched across a reused group, so an item moving past one is reported as removed
+     * and inserted.
+     *
+     * @param enabled Whether to diff hierarchically.  Defaults to false.
+     */
+    public void setHierarchicalDiffEnabled(boolean enabled) {
+        this.isHierarchicalDiffEnabled = enabled;
+        if (!isHierarchicalDiff()) groupModificationStamps.clear();
+    }
+
+    /**
+     * Diff the top-level groups in parallel in {@link #updateAsync(List)}, on a pool shared by all
+     * adapters with one thread per CPU.
+     *
+     * @see #setParallelDiffExecutor(Executor)
+     * @param enabled Whether to diff in parallel.  Defaults to false.
+     */
+    public void setParallelDiffEnabled(boolean enabled) {
+        setParallelDiffExecutor(enabled ? HierarchicalDiff.getDefaultParallelExecutor() : null);
+    }
+
+    /**
+     * Diff the top-level groups in parallel in {@link #updateAsync(List)}, on the given executor.
+     * <p>
+     * This implies a hierarchical diff (see {@link #setHierarchicalDiffEnabled(boolean)}).  In
+     * addition, where some groups were replaced by the same number of new groups, each new group
+     * is diffed only against the old group in the same position, as an independent task on the
+     * executor.  The results are then dispatched in adapter order.  Items can't be matched across
+     * different pairs of groups, so an item which moves to another group is reported as removed
+     * and inserted.
+     * <p>
+     * Waiting for the executor would block the main thread, so {@link #update(Collection)} still
+     * diffs the groups one after another.  So does {@link #updateAsync(List)} if the executor is
+     * the one async diffs are calculated on, since waiting on it from its own thread could deadlock.
+     *
+     * @param executor Executor on which to diff groups, or null to disable parallel diffing
+     */
+    public void setParallelDiffExecutor(@Nullable Executor executor) {
+        this.parallelDiffExecutor = executor;
+        if (!isHierarchicalDiff()) groupModificationStamps.clear();
+    }
+
+    private boolean isHierarchicalDiff() {
+        return isHierarchicalDiffEnabled || parallelDiffExecutor != null;
+    }
+
+    /**
+     * Set the executors used by {@link #updateAsync(List)}.  By default diffs are calculated on a
+     * single background thread shared by all adapters, and dispatched using the main looper.
+     *
+     * @param backgroundExecutor Executor on which diffs are calculated
+     * @param mainThreadExecutor Executor on which diff results are dispatched to this adapter.  It
+     *                           must run tasks on the main thread, in the order they are submitted.
+     */
+    public void setAsyncDiffExecutors(@NonNull Executor backgroundExecutor, @NonNull Executor mainThreadExecutor) {
+        asyncDiffUtil.setExecutors(backgroundExecutor, mainThreadExecutor);
+    }
+
+    /**
+     * Coalesce bursts of {@link #updateAsync(List)} calls, such as search-as-you-type: each diff
+     * waits for the quiet period before starting, and is skipped if another update arrives in the
+     * meantime, so only the latest list is diffed.  Defaults to 0, which starts every diff
+     * immediately.  Superseded diffs are cancelled either way.
+     *
+     * @param quietPeriodMillis How long to wait before diffing, in milliseconds
+     */
+    public void setAsyncDiffQuietPeriod(long quietPeriodMillis) {
+        asyncDiffUtil.setQuietPeriod(quietPeriodMillis);
+    }
+
     /**
      * Updates the adapter with a new list that will be diffed on a background thread
      * and displayed once diff results are calculated.
@@ -132,12 +456,68 @@ public class GroupAdapter<VH extends ViewHolder> extends RecyclerView.Adapter<VH
      */
     @SuppressWarnings("unused")
     public void updateAsync(@NonNull final List<? extends Group> newGroups, boolean detectMoves, @Nullable final OnAsyncUpdateListener onAsyncUpdateListener) {
-        final List<Group> oldGroups = new ArrayList<>(groups);
-        final int oldBodyItemCount = getItemCount(oldGroups);
-        final int newBodyItemCount = getItemCount(newGroups);
+        final Executor backgroundExecutor = asyncDiffUtil.getBackgroundExecutor();
+        final PendingDiff pendingDiff = createPendingDiff(newGroups, detectMoves,
+                parallelDiffExecutor == backgroundExecutor ? null : parallelDiffExecutor);
+        asyncDiffUtil.calculateDiff(newGroups, pendingDiff, onAsyncUpdateListener);
+    }
 
-        final DiffCallback diffUtilCallback = new DiffCallback(oldBodyItemCount, newBodyItemCount, oldGroups, newGroups);
-        asyncDiffUtil.calculateDiff(newGroups, diffUtilCallback, onAsyncUpdateListener, detectMoves);
+    /**
+     * Build groups on the background executor used by {@link #updateAsync(List)}, then add them to
+     * the end of the adapter on the main thread, as one insertion.
+     * <p>
+     * A group tree which isn't observed by an adapter can be built on any thread: groups with no
+     * observers only keep their item counts up to date, without working out positions to notify.
+     * The item counts of the built groups are calculated on the background thread too, so the main
+     * thread only has to register the top-level groups and notify a single insertion.
+     * <p>
+     * The builder must create new groups, which nothing else touches until they're added.  Don't
+     * call {@link #updateAsync(List)} until the groups have been added, since its diff wouldn't
+     * include them.
+     * <p>
+     * If the builder throws, nothing is added.  The exception is passed to the listener if it is an
+     * {@link OnAsyncUpdateFailedListener}, and otherwise rethrown on the main thread, which
+     * crashes the app like any other uncaught exception there.
+     *
+     * @param builder Creates the groups to add, on a background thread
+     * @param onAsyncUpdateListener Optional callback for when the groups have been added, or failed
+     *                              to build if it's an {@link OnAsyncUpdateFailedListener}
+     */
+    public void addAllAsync(@NonNull final Callable<? extends Collection<? extends Group>> builder,
+                            @Nullable final OnAsyncUpdateListener onAsyncUpdateListener) {
+        final Executor mainThreadExecutor = asyncDiffUtil.getMainThreadExecutor();
+        asyncDiffUtil.getBackgroundExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                final Collection<? extends Group> newGroups;
+                try {
+                    newGroups = builder.call();
+                    for (Group group : newGroups) {
+                        if (group != null) group.getItemCount();
+                    }
+                } catch (final Exception e) {
+                    mainThreadExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (!(onAsyncUpdateListener instanceof OnAsyncUpdateFailedListener)) {
+                                throw new RuntimeException(e);
+                            }
+                            ((OnAsyncUpdateFailedListener) onAsyncUpdateListener).onUpdateFailed(e);
+                        }
+                    });
+                    return;
+                }
+                mainThreadExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        addAll(newGroups);
+                        if (onAsyncUpdateListener != null) {
+                            onAsyncUpdateListener.onUpdateComplete();
+                        }
+                    }
+                });
+            }
+        });
     }
 
     /**
@@ -162,18 +542,124 @@ public class GroupAdapter<VH extends ViewHolder> extends RecyclerView.Adapter<VH
      */
     @SuppressWarnings("unused")
     public void update(@NonNull final Collection<? extends Group> newGroups, boolean detectMoves) {
-        final List<Group> oldGroups = new ArrayList<>(groups);
-        final int oldBodyItemCount = getItemCount(oldGroups);
-        final int newBodyItemCount = getItemCount(newGroups);
+        if (isDeferringUpdates()) {
+            setNewGroups(newGroups);
+            hasDeferredUpdates = true;
+            return;
+        }
+        // Diffed on this thread without a parallel executor, which would block it while waiting
+        final ListDiff diffResult = createPendingDiff(new ArrayList<Group>(newGroups), detectMoves, null).calculate();
 
-        final DiffUtil.DiffResult diffResult = DiffUtil.calculateDiff(
-                new DiffCallback(oldBodyItemCount, newBodyItemCount, oldGroups, newGroups),
-                detectMoves
-        );
+        setNewGroups(newGroups);
+
+        diffResult.dispatchUpdatesTo(getUpdateCallback());
+        reportUpdatePath(diffResult);
+    }
 
+    /**
+     * Updates the adapter with a new list, dispatching a diff which was already calculated, for
+     * example on a background thread in your data layer.
+     * <p>
+     * The diff must be between the adapter's current groups and the new groups, and the groups
+     * must not have changed since it was calculated.  Use {@link #createDiffCallback(Collection, Collection)}
+     * to diff them the same way {@link #update(Collection)} would.
+     *
+     * @param newGroups List of {@link Group}
+     * @param diffResult The diff from the current groups to the new groups
+     */
+    public void update(@NonNull final Collection<? extends Group> newGroups, @NonNull DiffUtil.DiffResult diffResult) {
+        if (isDeferringUpdates()) {
+            setNewGroups(newGroups);
+            hasDeferredUpdates = true;
+            return;
+        }
         setNewGroups(newGroups);
 
-        diffResult.dispatchUpdatesTo(diffUtilCallbacks);
+        final ListDiff listDiff = DiffEngine.wrap(diffResult);
+        listDiff.dispatchUpdatesTo(getUpdateCallback());
+        reportUpdatePath(listDiff);
+    }
+
+    /**
+     * Create a callback which diffs the items of two lists of groups for
+     * {@link DiffUtil#calculateDiff(DiffUtil.Callback, boolean)}, using the same comparisons as
+     * {@link #update(Collection)}.  Pass the result to {@link #update(Collection, DiffUtil.DiffResult)}
+     * or {@link Section#update(Collection, DiffUtil.DiffResult)}.
+     * <p>
+     * The items of both lists are captured when this is called, so the callback may then be
+     * diffed on any thread.  It can be created on any thread too, as long as neither list nor
+     * any of their groups are being changed meanwhile.
+     *
+     * @param oldGroups The groups currently in the adapter or section
+     * @param newGroups The groups which will replace them
+     */
+    @NonNull
+    public static DiffUtil.Callback createDiffCallback(@NonNull Collection<? extends Group> oldGroups,
+                                                       @NonNull Collection<? extends Group> newGroups) {
+        return new DiffCallback(oldGroups, newGroups);
+    }
+
+    /**
+     * Apply a list of changes to the top-level groups which are already known, such as those
+     * reported by a sync engine, without diffing.  The group offsets are recalculated once for the
+     * whole patch, and the resulting notifications are coalesced into ranges.
+     *
+     * @param operations The operations to apply, in order
+     */
+    public void applyPatch(@NonNull List<PatchOperation> operations) {
+        if (operations.isEmpty()) {
+            return;
+        }
+        final IndexedGroupList patchedGroups = new IndexedGroupList();
+        patchedGroups.addAll(groups);
+        final Patch patch = Patch.apply(operations, patchedGroups, this);
+
+        groups.clear();
+        groups.addAll(patchedGroups);
+        invalidateGroupIndices();
+
+        patch.dispatchUpdatesTo(getUpdateCallback());
+    }
+
+    /**
+     * Capture the current and new groups for a diff.
+     *
+     * @param parallelExecutor Executor on which to diff the groups in parallel, or null to diff them
+     *                         on the thread which calculates the diff
+     */
+    @NonNull
+    private PendingDiff createPendingDiff(@NonNull List<? extends Group> newGroups, boolean detectMoves,
+                                          @Nullable Executor parallelExecutor) {
+        if (isHierarchicalDiff()) {
+            pruneModificationStamps();
+            final HierarchicalDiff diff = HierarchicalDiff.create(new ArrayList<>(groups), newGroups,
+                    modificationStamps, diffStrategy, detectMoves, bulkUpdateThreshold, parallelExecutor);
+            if (diff != null) return diff;
+        }
+        return DiffEngine.pending(GroupSnapshot.of(groups), GroupSnapshot.of(newGroups), diffStrategy, detectMoves,
+                bulkUpdateThreshold);
+    }
+
+    private void onGroupModified(@NonNull Group group) {
+        if (isHierarchicalDiff()) {
+            groupModificationStamps.put(group, ++modificationCount);
+        }
+    }
+
+    /**
+     * Forget the stamps of groups which are no longer in the adapter.  Not done when groups are
+     * replaced, since an async result is dispatched after its new groups are set and still needs
+     * the stamps of the old ones.
+     */
+    private void pruneModificationStamps() {
+        if (groupModificationStamps.size() <= groups.size()) return;
+        final Map<Group, Integer> currentStamps = new IdentityHashMap<>();
+        for (Group group : groups) {
+            final Integer stamp = groupModificationStamps.get(group);
+            if (stamp != null) currentStamps.put(group, stamp);
+        }
+        groupModificationStamps.clear();
+        groupModificationStamps.putAll(currentStamps);
     }
 
     /**
@@ -230,10 +716,45 @@ public class GroupAdapter<VH extends ViewHolder> extends RecyclerView.Adapter<VH
 
     @Override
     public int getItemViewType(int position) {
-        lastItemForViewTypeLookup = getItem(position);
-        if (lastItemForViewTypeLookup == null)
+        Item<VH> item = getItem(position);
+        if (item == null)
             throw new RuntimeException("Invalid position " + position);
-        return lastItemForViewTypeLookup.getViewType();
+        final int viewType = item.getViewType();
+        getViewTypePrototypes().put(viewType, item);
+        return viewType;
+    }
+
+    /**
+     * Register an item whose view type may be created before any item of that type has been
+     * looked up in this adapter, for example when pre-populating a shared
+     * {@link RecyclerView.RecycledViewPool}.  View holders of its view type are then created with
+     * its layout and {@link Item#createViewHolder(View)}.
+     * <p>
+     * Items in the adapter are registered automatically as their view types are looked up, so this
+     * isn't needed otherwise.
+     *
+     * @param prototype An item of the view type, which may or may not be in the adapter
+     */
+    public void registerViewType(@NonNull Item<? extends VH> prototype) {
+        if (registeredViewTypePrototypes == null) {
+            registeredViewTypePrototypes = new SparseArrayCompat<>();
+        }
+        //noinspection unchecked
+        registeredViewTypePrototypes.put(prototype.getViewType(), (Item<VH>) prototype);
+    }
+
+    private void forgetViewTypePrototypes() {
+        if (viewTypePrototypes != null) {
+            viewTypePrototypes.clear();
+        }
+    }
+
+    @NonNull
+    private SparseArrayCompat<Item<VH>> getViewTypePrototypes() {
+        if (viewTypePrototypes == null) {
+            viewTypePrototypes = new SparseArrayCompat<>();
+        }
+        return viewTypePrototypes;
     }
 
     @Override
@@ -245,33 +766,135 @@ public class GroupAdapter<VH extends ViewHolder> extends RecyclerView.Adapter<VH
         return holder.getItem();
     }
 
-    private static Item getItem(Collection<? extends Group> groups, int position) {
-        int count = 0;
-        for (Group group : groups) {
-            if (position < count + group.getItemCount()) {
-                return group.getItem(position - count);
+    private void invalidateGroupOffsets() {
+        isGroupOffsetsDirty = true;
+    }
+
+    /**
+     * Keep the group offsets up to date after a top-level group changed size, which only moves
+     * the groups after it.
+     */
+    private void shiftGroupOffsets(@NonNull Group group, int delta) {
+        if (isGroupOffsetsDirty || delta == 0) return;
+        final int index = indexOfGroup(group);
+        if (index < 0 || hasDuplicateGroups) {
+            invalidateGroupOffsets();
+            return;
+        }
+        for (int i = index + 1; i <= groups.size(); i++) {
+            groupOffsets[i] += delta;
+        }
+    }
+
+    /**
+     * Called when top-level groups are added or removed, which also moves their offsets.
+     */
+    private void invalidateGroupIndices() {
+        groupIndices = null;
+        invalidateGroupOffsets();
+    }
+
+    /**
+     * @return The index of the top-level group, by identity, or -1 if it isn't one
+     */
+    private int indexOfGroup(@NonNull Group group) {
+        if (groupIndices == null) {
+            groupIndices = new IdentityHashMap<>();
+            hasDuplicateGroups = false;
+            for (int i = groups.size() - 1; i >= 0; i--) {
+                if (groupIndices.put(groups.get(i), i) != null) hasDuplicateGroups = true;
+            }
+        }
+        final Integer index = groupIndices.get(group);
+        return index == null ? -1 : index;
+    }
+
+    @NonNull
+    private int[] getGroupOffsets() {
+        if (isGroupOffsetsDirty) {
+            final int groupCount = groups.size();
+            if (groupOffsets.length < groupCount + 1) {
+                groupOffsets = new int[groupCount + 1];
+            }
+            int count = 0;
+            for (int i = 0; i < groupCount; i++) {
+                groupOffsets[i] = count;
+                count += groups.get(i).getItemCount();
+            }
+            groupOffsets[groupCount] = count;
+            isGroupOffsetsDirty = false;
+        }
+        return groupOffsets;
+    }
+
+    /**
+     * Binary search for the index of the top-level group containing the given adapter position.
+     */
+    private int getGroupIndex(int position) {
+        final int[] offsets = getGroupOffsets();
+        final int groupCount = groups.size();
+        if (position < 0 || position >= offsets[groupCount]) {
+            throw new IndexOutOfBoundsException("Requested position " + position + " in group adapter " +
+                    "but there are only " + offsets[groupCount] + " items");
+        }
+        // Find the last group starting at or before the position; empty groups before it are skipped
+        int low = 0;
+        int high = groupCount - 1;
+        while (low < high) {
+            final int mid = (low + high + 1) >>> 1;
+            if (offsets[mid] <= position) {
+                low = mid;
             } else {
-                count += group.getItemCount();
+                high = mid - 1;
             }
         }
-        throw new IndexOutOfBoundsException("Requested position " + position + "in group adapter " +
-                "but there are only " + count + " items");
+        return low;
     }
 
     public @NonNull Item getItem(int position) {
-        return getItem(groups, position);
+        final int groupIndex = getGroupIndex(position);
+        return groups.get(groupIndex).getItem(position - getGroupOffsets()[groupIndex]);
     }
 
     public int getAdapterPosition(@NonNull Item contentItem) {
-        int count = 0;
-        for (Group group : groups) {
-            int index = group.getPosition(contentItem);
-            if (index >= 0) return index + count;
-            count += group.getItemCount();
+        final int position = getAdapterPositionFromParents(contentItem);
+        if (position >= 0) return position;
+        final int[] offsets = getGroupOffsets();
+        for (int i = 0; i < groups.size(); i++) {
+            int index = groups.get(i).getPosition(contentItem);
+            if (index >= 0) return index + offsets[i];
         }
         return -1;
     }
 
+    /**
+     * Find an item's position by following the chain of groups which observe it up to the adapter,
+     * adding up the item count before each group in its parent, instead of searching every group.
+     * Each group in the chain must be a {@link NestedGroup} with only one observer.  Each step
+     * reads the start of the child from the offsets cached by its parent, which a {@link Section}
+     * looks up in O(log n) and other nested groups keep up to date as their children change size.
+     *
+     * @return The adapter position, or -1 if the chain of parents doesn't lead to the adapter
+     */
+    private int getAdapterPositionFromParents(@NonNull Item item) {
+        Group group = item;
+        GroupDataObserver parent = item.parentDataObserver;
+        int position = 0;
+        while (parent instanceof NestedGroup) {
+            final NestedGroup nestedGroup = (NestedGroup) parent;
+            // The group may still be registered with a parent which doesn't currently show it
+            final int itemCountBefore = nestedGroup.getItemCountBeforeVisibleGroup(group);
+            if (itemCountBefore < 0) return -1;
+            position += itemCountBefore;
+            group = nestedGroup;
+            parent = nestedGroup.getParentObserver();
+        }
+        if (parent != this) return -1;
+        final int index = indexOfGroup(group);
+        if (index < 0) return -1;
+        return getGroupOffsets()[index] + position;
+    }
+
     /**
      * The position in the flat list of individual items at which the group starts
      *
@@ -279,13 +902,10 @@ public class GroupAdapter<VH extends ViewHolder> extends RecyclerView.Adapter<VH
      * @return
      */
     public int getAdapterPosition(@NonNull Group group) {
-        int index = groups.indexOf(group);
+        int index = indexOfGroup(group);
+        if (index == -1) index = groups.indexOf(group);
         if (index == -1) return -1;
-        int position = 0;
-        for (int i = 0; i < index; i++) {
-            position += groups.get(i).getItemCount();
-        }
-        return position;
+        return getGroupOffsets()[index];
     }
 
     /**
@@ -295,17 +915,9 @@ public class GroupAdapter<VH extends ViewHolder> extends RecyclerView.Adapter<VH
         return groups.size();
     }
 
-    private static int getItemCount(Collection<? extends Group> groups) {
-        int count = 0;
-        for (Group group : groups) {
-            count += group.getItemCount();
-        }
-        return count;
-    }
-
     @Override
     public int getItemCount() {
-        return getItemCount(groups);
+        return getGroupOffsets()[groups.size()];
     }
 
     public int getItemCount(int groupIndex) {
@@ -320,6 +932,13 @@ public class GroupAdapter<VH extends ViewHolder> extends RecyclerView.Adapter<VH
             group.unregisterGroupDataObserver(this);
         }
         groups.clear();
+        groupModificationStamps.clear();
+        invalidateGroupIndices();
+        forgetViewTypePrototypes();
+        if (batchCallback != null) {
+            // Everything changed anyway, but the buffered notifications must still go first
+            batchCallback.dispatchLastEvent();
+        }
         notifyDataSetChanged();
     }
 
@@ -328,7 +947,8 @@ public class GroupAdapter<VH extends ViewHolder> extends RecyclerView.Adapter<VH
         int itemCountBeforeGroup = getItemCount();
         group.registerGroupDataObserver(this);
         groups.add(group);
-        notifyItemRangeInserted(itemCountBeforeGroup, group.getItemCount());
+        invalidateGroupIndices();
+        getUpdateCallback().onInserted(itemCountBeforeGroup, group.getItemCount());
     }
 
     /**
@@ -346,7 +966,8 @@ public class GroupAdapter<VH extends ViewHolder> extends RecyclerView.Adapter<VH
             group.registerGroupDataObserver(this);
         }
         this.groups.addAll(groups);
-        notifyItemRangeInserted(itemCountBeforeGroup, additionalSize);
+        invalidateGroupIndices();
+        getUpdateCallback().onInserted(itemCountBeforeGroup, additionalSize);
     }
 
     public void remove(@NonNull Group group) {
@@ -370,15 +991,18 @@ public class GroupAdapter<VH extends ViewHolder> extends RecyclerView.Adapter<VH
         int itemCountBeforeGroup = getItemCountBeforeGroup(position);
         group.unregisterGroupDataObserver(this);
         groups.remove(position);
-        notifyItemRangeRemoved(itemCountBeforeGroup, group.getItemCount());
+        groupModificationStamps.remove(group);
+        invalidateGroupIndices();
+        getUpdateCallback().onRemoved(itemCountBeforeGroup, group.getItemCount());
     }
 
     public void add(int index, @NonNull Group group) {
         if (group == null) throw new RuntimeException("Group cannot be null");
         group.registerGroupDataObserver(this);
         groups.add(index, group);
+        invalidateGroupIndices();
         int itemCountBeforeGroup = getItemCountBeforeGroup(index);
-        notifyItemRangeInserted(itemCountBeforeGroup, group.getItemCount());
+        getUpdateCallback().onInserted(itemCountBeforeGroup, group.getItemCount());
     }
 
     /**
@@ -390,23 +1014,11 @@ public class GroupAdapter<VH extends ViewHolder> extends RecyclerView.Adapter<VH
     @SuppressWarnings("WeakerAccess")
     @NonNull
     public Group getGroup(int position) {
-        int previous = 0;
-        int size;
-        for (Group group : groups) {
-            size = group.getItemCount();
-            if (position - previous < size) return group;
-            previous += group.getItemCount();
-        }
-        throw new IndexOutOfBoundsException("Requested position " + position + " in group adapter " +
-                "but there are only " + previous + " items");
+        return groups.get(getGroupIndex(position));
     }
 
     private int getItemCountBeforeGroup(int groupIndex) {
-        int count = 0;
-        for (Group group : groups.subList(0, groupIndex)) {
-            count += group.getItemCount();
-        }
-        return count;
+        return getGroupOffsets()[groupIndex];
     }
 
     @NonNull
@@ -426,6 +1038,8 @@ public class GroupAdapter<VH extends ViewHolder> extends RecyclerView.Adapter<VH
 
         groups.clear();
         groups.addAll(newGroups);
+        invalidateGroupIndices();
+        forgetViewTypePrototypes();
 
         for (Group group : newGroups) {
             group.registerGroupDataObserver(this);
@@ -434,53 +1048,77 @@ public class GroupAdapter<VH extends ViewHolder> extends RecyclerView.Adapter<VH
 
     @Override
     public void onChanged(@NonNull Group group) {
-        notifyItemRangeChanged(getAdapterPosition(group), group.getItemCount());
+        if (deferChange(group, 0)) return;
+        onGroupModified(group);
+        getUpdateCallback().onChanged(getAdapterPosition(group), group.getItemCount(), null);
     }
 
     @Override
     public void onItemInserted(@NonNull Group group, int position) {
-        notifyItemInserted(getAdapterPosition(group) + position);
+        if (deferChange(group, 1)) return;
+        onGroupModified(group);
+        shiftGroupOffsets(group, 1);
+        getUpdateCallback().onInserted(getAdapterPosition(group) + position, 1);
     }
 
     @Override
     public void onItemChanged(@NonNull Group group, int position) {
-        notifyItemChanged(getAdapterPosition(group) + position);
+        if (deferChange(group, 0)) return;
+        onGroupModified(group);
+        getUpdateCallback().onChanged(getAdapterPosition(group) + position, 1, null);
     }
 
     @Override
     public void onItemChanged(@NonNull Group group, int position, Object payload) {
-        notifyItemChanged(getAdapterPosition(group) + position, payload);
+        if (deferChange(group, 0)) return;
+        onGroupModified(group);
+        getUpdateCallback().onChanged(getAdapterPosition(group) + position, 1, payload);
     }
 
     @Override
     public void onItemRemoved(@NonNull Group group, int position) {
-        notifyItemRemoved(getAdapterPosition(group) + position);
+        if (deferChange(group, -1)) return;
+        onGroupModified(group);
+        shiftGroupOffsets(group, -1);
+        getUpdateCallback().onRemoved(getAdapterPosition(group) + position, 1);
     }
 
     @Override
     public void onItemRangeChanged(@NonNull Group group, int positionStart, int itemCount) {
-        notifyItemRangeChanged(getAdapterPosition(group) + positionStart, itemCount);
+        if (deferChange(group, 0)) return;
+        onGroupModified(group);
+        getUpdateCallback().onChanged(getAdapterPosition(group) + positionStart, itemCount, null);
     }
 
     @Override
     public void onItemRangeChanged(@NonNull Group group, int positionStart, int itemCount, Object payload) {
-        notifyItemRangeChanged(getAdapterPosition(group) + positionStart, itemCount, payload);
+        if (deferChange(group, 0)) return;
+        onGroupModified(group);
+        getUpdateCallback().onChanged(getAdapterPosition(group) + positionStart, itemCount, payload);
     }
 
     @Override
     public void onItemRangeInserted(@NonNull Group group, int positionStart, int itemCount) {
-        notifyItemRangeInserted(getAdapterPosition(group) + positionStart, itemCount);
+        if (deferChange(group, itemCount)) return;
+        onGroupModified(group);
+        shiftGroupOffsets(group, itemCount);
+        getUpdateCallback().onInserted(getAdapterPosition(group) + positionStart, itemCount);
     }
 
     @Override
     public void onItemRangeRemoved(@NonNull Group group, int positionStart, int itemCount) {
-        notifyItemRangeRemoved(getAdapterPosition(group) + positionStart, itemCount);
+        if (deferChange(group, -itemCount)) return;
+        onGroupModified(group);
+        shiftGroupOffsets(group, -itemCount);
+        getUpdateCallback().onRemoved(getAdapterPosition(group) + positionStart, itemCount);
     }
 
     @Override
     public void onItemMoved(@NonNull Group group, int fromPosition, int toPosition) {
+        if (deferChange(group, 0)) return;
+        onGroupModified(group);
         int groupAdapterPosition = getAdapterPosition(group);
-        notifyItemMoved(groupAdapterPosition + fromPosition, groupAdapterPosition + toPosition);
+        getUpdateCallback().onMoved(groupAdapterPosition + fromPosition, groupAdapterPosition + toPosition);
     }
 
     /**
@@ -488,79 +1126,30 @@ public class GroupAdapter<VH extends ViewHolder> extends RecyclerView.Adapter<VH
      * <p>
      * Find the model that has the given view type so we can create a viewholder for that model.
      * <p>
-     * To make this efficient, we rely on the RecyclerView implementation detail that {@link
-     * GroupAdapter#getItemViewType(int)} is called immediately before {@link
-     * GroupAdapter#onCreateViewHolder(android.view.ViewGroup, int)}. We cache the last model
-     * that had its view type looked up, and unless that implementation changes we expect to have a
-     * very fast lookup for the correct model.
+     * RecyclerView normally asks for the view type of a position, through
+     * {@link GroupAdapter#getItemViewType(int)}, before creating a view holder for it, so the view
+     * type has usually been recorded by then, even when view holders are created out of order,
+     * such as while prefetching or for a nested RecyclerView.
      * <p>
-     * To be safe, we fallback to searching through all models for a view type match. This is slow and
-     * shouldn't be needed, but is a guard against RecyclerView behavior changing.
+     * A view holder may still be created for a view type which this adapter never looked up, such
+     * as from a shared {@link RecyclerView.RecycledViewPool}.  Then we fall back to registered
+     * prototypes, and finally to searching through all models for a view type match.
      */
-    private Item<VH> getItemForViewType(int viewType) {
-        if (lastItemForViewTypeLookup != null
-                && lastItemForViewTypeLookup.getViewType() == viewType) {
-            // We expect this to be a hit 100% of the time
-            return lastItemForViewTypeLookup;
-        }
+    @NonNull
+    Item<VH> getItemForViewType(int viewType) {
+        Item<VH> item = viewTypePrototypes == null ? null : viewTypePrototypes.get(viewType);
+        if (item != null) return item;
+        item = registeredViewTypePrototypes == null ? null : registeredViewTypePrototypes.get(viewType);
+        if (item != null) return item;
 
-        // To be extra safe in case RecyclerView implementation details change...
         for (int i = 0; i < getItemCount(); i++) {
-            Item item = getItem(i);
+            item = getItem(i);
             if (item.getViewType() == viewType) {
+                getViewTypePrototypes().put(viewType, item);
                 return item;
             }
         }
 
         throw new IllegalStateException("Could not find model for view type: " + viewType);
     }
-
-    private static class DiffCallback extends DiffUtil.Callback {
-        private final int oldBodyItemCount;
-        private final int newBodyItemCount;
-        private final Collection<? extends Group> oldGroups;
-        private final Collection<? extends Group> newGroups;
-
-        DiffCallback(int oldBodyItemCount,
-                     int newBodyItemCount,
-                     Collection<? extends Group> oldGroups,
-                     Collection<? extends Group> newGroups) {
-            this.oldBodyItemCount = oldBodyItemCount;
-            this.newBodyItemCount = newBodyItemCount;
-            this.oldGroups = oldGroups;
-            this.newGroups = newGroups;
-        }
-
-        @Override
-        public int getOldListSize() {
-            return oldBodyItemCount;
-        }
-
-        @Override
-        public int getNewListSize() {
-            return newBodyItemCount;
-        }
-
-        @Override
-        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
-            Item oldItem = getItem(oldGroups, oldItemPosition);
-            Item newItem = getItem(newGroups, newItemPosition);
-            return newItem.isSameAs(oldItem);
-        }
-
-        @Override
-        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
-            Item oldItem = getItem(oldGroups, oldItemPosition);
-            Item newItem = getItem(newGroups, newItemPosition);
-            return newItem.equals(oldItem);
-        }
-
-        @Nullable
-        @Override
-        public Object getChangePayload(int oldItemPosition, int newItemPosition) {
-            Item oldItem = getItem(oldGroups, oldItemPosition);
-            Item newItem = getItem(newGroups, newItemPosition);
-            return oldItem.getChangePayload(newItem);
-        }
-    }
 }
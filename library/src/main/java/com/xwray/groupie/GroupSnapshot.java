@@ -0,0 +1,105 @@
+package com.xwray.groupie;
+
+import androidx.annotation.NonNull;
+
+import java.util.Collection;
+
+/**
+ * An immutable record of the items of some groups, which can be read on any thread while the
+ * groups go on changing.
+ * <p>
+ * A snapshot refers to the snapshots of its nested groups rather than copying their items, and
+ * each {@link NestedGroup} keeps its snapshot until it or one of its descendants notifies a change.
+ * Capturing a tree therefore only visits the groups which changed since it was last captured, and
+ * the items are only copied out into an array by {@link #getItems()}, which may be called on a
+ * background thread.
+ */
+final class GroupSnapshot {
+
+    /**
+     * Each an {@link Item} or the {@link GroupSnapshot} of a group, in adapter order.
+     */
+    private final Object[] parts;
+    private final int itemCount;
+
+    private GroupSnapshot(@NonNull Object[] parts, int itemCount) {
+        this.parts = parts;
+        this.itemCount = itemCount;
+    }
+
+    /**
+     * Capture the items of the groups.  Must be called on the thread which changes the groups.
+     */
+    @NonNull
+    static GroupSnapshot of(@NonNull Collection<? extends Group> groups) {
+        final Object[] parts = new Object[groups.size()];
+        int itemCount = 0;
+        int i = 0;
+        for (Group group : groups) {
+            final Object part = capture(group);
+            parts[i++] = part;
+            itemCount += itemCount(part);
+        }
+        return new GroupSnapshot(parts, itemCount);
+    }
+
+    /**
+     * Capture the items of the group's visible child groups, reusing their cached snapshots.
+     */
+    @NonNull
+    static GroupSnapshot of(@NonNull NestedGroup group) {
+        final int groupCount = group.getGroupCount();
+        final Object[] parts = new Object[groupCount];
+        int itemCount = 0;
+        for (int i = 0; i < groupCount; i++) {
+            final Object part = capture(group.getGroup(i));
+            parts[i] = part;
+            itemCount += itemCount(part);
+        }
+        return new GroupSnapshot(parts, itemCount);
+    }
+
+    @NonNull
+    private static Object capture(@NonNull Group group) {
+        if (group instanceof Item) return group;
+        if (group instanceof NestedGroup) return ((NestedGroup) group).getSnapshot();
+        // Other groups can't tell us when they change, so their items are copied every time
+        final Object[] items = new Object[group.getItemCount()];
+        for (int i = 0; i < items.length; i++) {
+            items[i] = group.getItem(i);
+        }
+        return new GroupSnapshot(items, items.length);
+    }
+
+    private static int itemCount(@NonNull Object part) {
+        return part instanceof Item ? 1 : ((GroupSnapshot) part).itemCount;
+    }
+
+    int getItemCount() {
+        return itemCount;
+    }
+
+    /**
+     * @return The items, in adapter order
+     */
+    @NonNull
+    Item[] getItems() {
+        final Item[] items = new Item[itemCount];
+        copyItems(items, 0);
+        return items;
+    }
+
+    /**
+     * @return The position after the last item copied
+     */
+    private int copyItems(@NonNull Item[] items, int position) {
+        for (Object part : parts) {
+            if (part instanceof Item) {
+                items[position++] = (Item) part;
+            } else {
+                position = ((GroupSnapshot) part).copyItems(items, position);
+            }
+        }
+        return position;
+    }
+}
@@ -0,0 +1,265 @@
+package com.xwray.groupie;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.ListUpdateCallback;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A diff between two lists of top-level groups which only diffs the items of groups that were
+ * replaced.
+ * <p>
+ * Groups which are the same instance in both lists, in the same relative order, are kept as they
+ * are: a group which is registered with the adapter has already notified it of its own changes,
+ * so its items can't differ.  Only the groups in the gaps between those kept groups are captured
+ * and diffed, and each gap's result is offset to the adapter position at which the gap starts.
+ * <p>
+ * When calculated asynchronously, an old group in a gap may change between capturing its items
+ * and dispatching the result.  The modification stamps of the old groups in each gap are compared
+ * on dispatch, and a gap whose groups changed is reported as removed and reinserted instead.
+ * <p>
+ * With a parallel executor, a gap with as many new groups as old is split further, pairing the
+ * groups by position, and the gaps are diffed concurrently on the executor.  Items can then only
+ * be matched within a pair of groups.
+ */
+final class HierarchicalDiff implements PendingDiff, ListDiff {
+
+    /**
+     * Stamps which change whenever a group notifies its observer of a change.
+     */
+    interface ModificationStamps {
+        int getModificationStamp(@NonNull Group group);
+    }
+
+    private static final class Gap {
+        final int oldStart;
+        final int oldEnd;
+        final int newItemCount;
+        final int[] oldStamps;
+        final PendingDiff pendingDiff;
+        ListDiff diff;
+
+        Gap(int oldStart, int oldEnd, int newItemCount, @NonNull int[] oldStamps, @NonNull PendingDiff pendingDiff) {
+            this.oldStart = oldStart;
+            this.oldEnd = oldEnd;
+            this.newItemCount = newItemCount;
+            this.oldStamps = oldStamps;
+            this.pendingDiff = pendingDiff;
+        }
+    }
+
+    @NonNull private final List<Group> oldGroups;
+    @NonNull private final ModificationStamps modificationStamps;
+    @Nullable private final Executor parallelExecutor;
+    private final List<Gap> gaps = new ArrayList<>();
+
+    private HierarchicalDiff(@NonNull List<Group> oldGroups, @NonNull ModificationStamps modificationStamps,
+                             @Nullable Executor parallelExecutor) {
+        this.oldGroups = oldGroups;
+        this.modificationStamps = modificationStamps;
+        this.parallelExecutor = parallelExecutor;
+    }
+
+    /**
+     * @return A pool shared by all adapters with one thread per CPU, for diffing groups in parallel
+     */
+    @NonNull
+    static Executor getDefaultParallelExecutor() {
+        return DefaultParallelExecutor.INSTANCE;
+    }
+
+    /**
+     * Match the groups by identity and capture the items of the groups which differ.  Must be
+     * called on the main thread.
+     *
+     * @param parallelExecutor Executor on which to diff the gaps concurrently, or null to diff them
+     *                         one after another on the calling thread
+     * @return The pending diff, or null if a group appears twice in either list
+     */
+    @Nullable
+    static HierarchicalDiff create(@NonNull List<? extends Group> oldGroups,
+                                   @NonNull List<? extends Group> newGroups,
+                                   @NonNull ModificationStamps modificationStamps,
+                                   @NonNull DiffStrategy strategy,
+                                   boolean detectMoves,
+                                   float bulkUpdateThreshold,
+                                   @Nullable Executor parallelExecutor) {
+        final Map<Group, Integer> oldIndices = new IdentityHashMap<>(oldGroups.size());
+        for (int i = 0; i < oldGroups.size(); i++) {
+            if (oldIndices.put(oldGroups.get(i), i) != null) return null;
+        }
+        final Map<Group, Integer> newIndices = new IdentityHashMap<>(newGroups.size());
+        final List<Integer> matchedNewIndices = new ArrayList<>();
+        final List<Integer> matchedOldIndices = new ArrayList<>();
+        for (int j = 0; j < newGroups.size(); j++) {
+            final Group group = newGroups.get(j);
+            if (newIndices.put(group, j) != null) return null;
+            final Integer i = oldIndices.get(group);
+            if (i != null) {
+                matchedNewIndices.add(j);
+                matchedOldIndices.add(i);
+            }
+        }
+
+        final int[] oldIndexInNewOrder = new int[matchedOldIndices.size()];
+        for (int k = 0; k < oldIndexInNewOrder.length; k++) {
+            oldIndexInNewOrder[k] = matchedOldIndices.get(k);
+        }
+        final boolean[] isKept = UniqueKeyDiff.longestIncreasingSubsequence(oldIndexInNewOrder);
+
+        final HierarchicalDiff diff = new HierarchicalDiff(new ArrayList<Group>(oldGroups), modificationStamps,
+                parallelExecutor);
+        int oldStart = 0;
+        int newStart = 0;
+        for (int k = 0; k <= isKept.length; k++) {
+            if (k < isKept.length && !isKept[k]) continue;
+            final int oldEnd = k < isKept.length ? oldIndexInNewOrder[k] : oldGroups.size();
+            final int newEnd = k < isKept.length ? matchedNewIndices.get(k) : newGroups.size();
+            if (parallelExecutor != null && oldEnd - oldStart == newEnd - newStart) {
+                for (int g = 0; g < oldEnd - oldStart; g++) {
+                    diff.addGap(oldGroups.subList(oldStart + g, oldStart + g + 1), oldStart + g,
+                            newGroups.subList(newStart + g, newStart + g + 1), strategy, detectMoves,
+                            bulkUpdateThreshold);
+                }
+            } else if (oldStart < oldEnd || newStart < newEnd) {
+                diff.addGap(oldGroups.subList(oldStart, oldEnd), oldStart, newGroups.subList(newStart, newEnd),
+                        strategy, detectMoves, bulkUpdateThreshold);
+            }
+            oldStart = oldEnd + 1;
+            newStart = newEnd + 1;
+        }
+        return diff;
+    }
+
+    private void addGap(@NonNull List<? extends Group> oldGapGroups, int oldStart,
+                        @NonNull List<? extends Group> newGapGroups,
+                        @NonNull DiffStrategy strategy, boolean detectMoves, float bulkUpdateThreshold) {
+        final int[] oldStamps = new int[oldGapGroups.size()];
+        for (int i = 0; i < oldStamps.length; i++) {
+            oldStamps[i] = modificationStamps.getModificationStamp(oldGapGroups.get(i));
+        }
+        final GroupSnapshot newSnapshot = GroupSnapshot.of(newGapGroups);
+        gaps.add(new Gap(oldStart, oldStart + oldGapGroups.size(), newSnapshot.getItemCount(), oldStamps,
+                DiffEngine.pending(GroupSnapshot.of(oldGapGroups), newSnapshot, strategy, detectMoves,
+                        bulkUpdateThreshold)));
+    }
+
+    @Override
+    public void setCancellationCheck(@Nullable DiffCallback.CancellationCheck cancellationCheck) {
+        for (Gap gap : gaps) {
+            gap.pendingDiff.setCancellationCheck(cancellationCheck);
+        }
+    }
+
+    @NonNull
+    @Override
+    public ListDiff calculate() {
+        if (parallelExecutor == null || gaps.size() < 2) {
+            for (Gap gap : gaps) {
+                gap.diff = gap.pendingDiff.calculate();
+            }
+        } else {
+            calculateInParallel(parallelExecutor);
+        }
+        return this;
+    }
+
+    private void calculateInParallel(@NonNull Executor executor) {
+        final CountDownLatch remaining = new CountDownLatch(gaps.size());
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        for (final Gap gap : gaps) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        gap.diff = gap.pendingDiff.calculate();
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    } finally {
+                        remaining.countDown();
+                    }
+                }
+            });
+        }
+        try {
+            remaining.await();
+        } catch (InterruptedException e) {
+            // Cancellation doesn't interrupt, so the thread's owner wants it back, e.g. a shutdownNow().
+            // Give up like a cancelled diff; gaps still being diffed only stop if it was cancelled.
+            Thread.currentThread().interrupt();
+            throw new CancellationException();
+        }
+        final Throwable t = failure.get();
+        if (t instanceof RuntimeException) throw (RuntimeException) t;
+        if (t instanceof Error) throw (Error) t;
+    }
+
+    /**
+     * @return Whether any gap skipped its diff in favour of one removal and one insertion
+     */
+    boolean isBulk() {
+        for (Gap gap : gaps) {
+            if (gap.diff != null && DiffEngine.isBulk(gap.diff)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Dispatch the diff of each gap, back to front so that the positions before each gap don't
+     * change.  Must be called on the main thread.
+     */
+    @Override
+    public void dispatchUpdatesTo(@NonNull ListUpdateCallback updateCallback) {
+        // The current adapter position of each old group, since kept groups may have changed size
+        final int[] offsets = new int[oldGroups.size() + 1];
+        for (int i = 0; i < oldGroups.size(); i++) {
+            offsets[i + 1] = offsets[i] + oldGroups.get(i).getItemCount();
+        }
+        for (int g = gaps.size() - 1; g >= 0; g--) {
+            final Gap gap = gaps.get(g);
+            final int offset = offsets[gap.oldStart];
+            if (isUnchanged(gap)) {
+                gap.diff.dispatchUpdatesTo(new OffsetListUpdateCallback(updateCallback, offset));
+            } else {
+                final int oldItemCount = offsets[gap.oldEnd] - offset;
+                if (oldItemCount > 0) updateCallback.onRemoved(offset, oldItemCount);
+                if (gap.newItemCount > 0) updateCallback.onInserted(offset, gap.newItemCount);
+            }
+        }
+    }
+
+    private boolean isUnchanged(@NonNull Gap gap) {
+        for (int i = gap.oldStart; i < gap.oldEnd; i++) {
+            if (modificationStamps.getModificationStamp(oldGroups.get(i)) != gap.oldStamps[i - gap.oldStart]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static final class DefaultParallelExecutor {
+        static final ExecutorService INSTANCE = Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(@NonNull Runnable runnable) {
+                        Thread thread = new Thread(runnable, "groupie-parallel-diff-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+}
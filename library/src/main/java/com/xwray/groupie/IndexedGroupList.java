@@ -0,0 +1,444 @@
+package com.xwray.groupie;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * A list of groups which also tracks the item count of each group, for use as the children of a
+ * {@link NestedGroup}.
+ * <p>
+ * The groups are stored in a balanced tree (a treap keyed by implicit index) where every node
+ * knows the size and total item count of its subtree, so that inserting or removing at any index,
+ * finding the index of a group, counting the items before a group and finding the group which
+ * contains an item position are all O(log n).
+ * <p>
+ * Lookups by group use identity, not equals().  The item count of each group is recorded when it
+ * is added, so the owner must call {@link #onItemCountChanged(Group, int)} when a child reports
+ * that its size changed.
+ */
+class IndexedGroupList extends AbstractList<Group> {
+
+    private static final class Node {
+        final Group group;
+        final int priority;
+        int itemCount;
+        int size = 1;
+        int totalItemCount;
+        Node left;
+        Node right;
+        Node parent;
+
+        Node(Group group, int priority) {
+            this.group = group;
+            this.priority = priority;
+            this.itemCount = group.getItemCount();
+            this.totalItemCount = itemCount;
+        }
+    }
+
+    private final Random random = new Random();
+
+    /**
+     * The node of the first occurrence of each group.
+     */
+    private final Map<Group, Node> nodes = new IdentityHashMap<>();
+
+    /**
+     * The number of nodes whose group also occurs earlier in the list.  Adding the same group
+     * twice is unusual, so while this is zero, lookups by group can skip scanning for duplicates.
+     */
+    private int duplicateCount = 0;
+
+    @Nullable
+    private Node root;
+
+    // Results of split(), to avoid allocating a pair for every call
+    private Node splitLeft;
+    private Node splitRight;
+
+    @Override
+    public int size() {
+        return size(root);
+    }
+
+    @Override
+    @NonNull
+    public Group get(int index) {
+        return getNode(index).group;
+    }
+
+    @Override
+    public void add(int index, @NonNull Group group) {
+        if (index < 0 || index > size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+        Node node = new Node(group, random.nextInt());
+        split(root, index);
+        Node right = splitRight;
+        root = merge(merge(splitLeft, node), right);
+        root.parent = null;
+        onNodeAdded(node);
+        modCount++;
+    }
+
+    @Override
+    public boolean addAll(@NonNull Collection<? extends Group> groups) {
+        return addAll(size(), groups);
+    }
+
+    @Override
+    public boolean addAll(int index, @NonNull Collection<? extends Group> groups) {
+        if (index < 0 || index > size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+        if (groups.isEmpty()) return false;
+        List<Node> added = new ArrayList<>(groups.size());
+        Node inserted = build(groups, added);
+        split(root, index);
+        Node right = splitRight;
+        root = merge(merge(splitLeft, inserted), right);
+        root.parent = null;
+        for (Node node : added) {
+            onNodeAdded(node);
+        }
+        modCount++;
+        return true;
+    }
+
+    @Override
+    @NonNull
+    public Group set(int index, @NonNull Group group) {
+        Group previous = remove(index);
+        add(index, group);
+        return previous;
+    }
+
+    @Override
+    @NonNull
+    public Group remove(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+        split(root, index);
+        Node left = splitLeft;
+        split(splitRight, 1);
+        Node removed = splitLeft;
+        root = merge(left, splitRight);
+        if (root != null) root.parent = null;
+        onNodeRemoved(removed);
+        modCount++;
+        return removed.group;
+    }
+
+    @Override
+    public void clear() {
+        root = null;
+        nodes.clear();
+        duplicateCount = 0;
+        modCount++;
+    }
+
+    /**
+     * In-order traversal, which is linear for the whole list rather than O(n log n) for get(i).
+     */
+    @Override
+    @NonNull
+    public Iterator<Group> iterator() {
+        return new Iterator<Group>() {
+            private Node next = first(root);
+            private Node lastReturned;
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Group next() {
+                if (next == null) throw new NoSuchElementException();
+                lastReturned = next;
+                next = successor(next);
+                return lastReturned.group;
+            }
+
+            @Override
+            public void remove() {
+                if (lastReturned == null) throw new IllegalStateException();
+                IndexedGroupList.this.remove(indexOf(lastReturned));
+                lastReturned = null;
+            }
+        };
+    }
+
+    /**
+     * @return The index of the first occurrence of the group (by identity), or -1 if not present
+     */
+    int indexOfGroup(@NonNull Group group) {
+        Node node = nodes.get(group);
+        return node == null ? -1 : indexOf(node);
+    }
+
+    /**
+     * @return The total item count of all groups in the list
+     */
+    int getTotalItemCount() {
+        return root == null ? 0 : root.totalItemCount;
+    }
+
+    /**
+     * @return The total item count of the groups before the given index
+     */
+    int getItemCountBefore(int index) {
+        int count = 0;
+        Node node = root;
+        while (node != null) {
+            int leftSize = size(node.left);
+            if (index <= leftSize) {
+                node = node.left;
+            } else {
+                count += totalItemCount(node.left) + node.itemCount;
+                index -= leftSize + 1;
+                node = node.right;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param position An item position, between 0 and {@link #getTotalItemCount()}
+     * @return The index of the group which contains the item position.  Groups with no items are
+     * skipped.
+     */
+    int indexOfItemPosition(int position) {
+        if (position < 0 || position >= getTotalItemCount()) {
+            throw new IndexOutOfBoundsException("Wanted item at " + position + " but there are only "
+                    + getTotalItemCount() + " items");
+        }
+        int index = 0;
+        Node node = root;
+        while (true) {
+            int leftItemCount = totalItemCount(node.left);
+            if (position < leftItemCount) {
+                node = node.left;
+            } else if (position < leftItemCount + node.itemCount) {
+                return index + size(node.left);
+            } else {
+                position -= leftItemCount + node.itemCount;
+                index += size(node.left) + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    /**
+     * Record that a group in the list gained or lost items.
+     *
+     * @return false if the group isn't in the list, in which case nothing is changed
+     */
+    boolean onItemCountChanged(@NonNull Group group, int delta) {
+        Node node = nodes.get(group);
+        if (node == null) return false;
+        if (duplicateCount == 0) {
+            addToItemCount(node, delta);
+        } else {
+            for (Node duplicate = first(root); duplicate != null; duplicate = successor(duplicate)) {
+                if (duplicate.group == group) addToItemCount(duplicate, delta);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Re-read the item count of every group, for when a change can't be attributed to a group.
+     */
+    void refreshItemCounts() {
+        refreshItemCounts(root);
+    }
+
+    private void refreshItemCounts(@Nullable Node node) {
+        if (node == null) return;
+        refreshItemCounts(node.left);
+        refreshItemCounts(node.right);
+        node.itemCount = node.group.getItemCount();
+        update(node);
+    }
+
+    private void addToItemCount(@NonNull Node node, int delta) {
+        node.itemCount += delta;
+        for (Node current = node; current != null; current = current.parent) {
+            current.totalItemCount += delta;
+        }
+    }
+
+    private void onNodeAdded(@NonNull Node node) {
+        Node existing = nodes.get(node.group);
+        if (existing == null) {
+            nodes.put(node.group, node);
+        } else {
+            duplicateCount++;
+            if (indexOf(node) < indexOf(existing)) {
+                nodes.put(node.group, node);
+            }
+        }
+    }
+
+    private void onNodeRemoved(@NonNull Node removed) {
+        if (nodes.get(removed.group) != removed) {
+            duplicateCount--;
+            return;
+        }
+        nodes.remove(removed.group);
+        if (duplicateCount > 0) {
+            for (Node node = first(root); node != null; node = successor(node)) {
+                if (node.group == removed.group) {
+                    nodes.put(node.group, node);
+                    duplicateCount--;
+                    return;
+                }
+            }
+        }
+    }
+
+    @NonNull
+    private Node getNode(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+        Node node = root;
+        while (true) {
+            int leftSize = size(node.left);
+            if (index < leftSize) {
+                node = node.left;
+            } else if (index == leftSize) {
+                return node;
+            } else {
+                index -= leftSize + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    private static int indexOf(@NonNull Node node) {
+        int index = size(node.left);
+        for (Node current = node; current.parent != null; current = current.parent) {
+            if (current == current.parent.right) {
+                index += size(current.parent.left) + 1;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Split the tree into the first count nodes (splitLeft) and the rest (splitRight).
+     */
+    private void split(@Nullable Node node, int count) {
+        if (node == null) {
+            splitLeft = null;
+            splitRight = null;
+            return;
+        }
+        if (count <= size(node.left)) {
+            split(node.left, count);
+            node.left = splitRight;
+            update(node);
+            splitRight = node;
+        } else {
+            split(node.right, count - size(node.left) - 1);
+            node.right = splitLeft;
+            update(node);
+            splitLeft = node;
+        }
+        if (splitLeft != null) splitLeft.parent = null;
+        if (splitRight != null) splitRight.parent = null;
+    }
+
+    @Nullable
+    private static Node merge(@Nullable Node left, @Nullable Node right) {
+        if (left == null) return right;
+        if (right == null) return left;
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            update(left);
+            return left;
+        } else {
+            right.left = merge(left, right.left);
+            update(right);
+            return right;
+        }
+    }
+
+    /**
+     * Build a treap of the groups in linear time, by pushing nodes onto the right spine of a
+     * Cartesian tree.
+     */
+    @NonNull
+    private Node build(@NonNull Collection<? extends Group> groups, @NonNull List<Node> added) {
+        List<Node> spine = new ArrayList<>();
+        for (Group group : groups) {
+            Node node = new Node(group, random.nextInt());
+            added.add(node);
+            Node last = null;
+            while (!spine.isEmpty() && spine.get(spine.size() - 1).priority < node.priority) {
+                last = spine.remove(spine.size() - 1);
+            }
+            node.left = last;
+            if (!spine.isEmpty()) {
+                spine.get(spine.size() - 1).right = node;
+            }
+            spine.add(node);
+        }
+        Node root = spine.get(0);
+        updateSubtree(root);
+        root.parent = null;
+        return root;
+    }
+
+    private static void updateSubtree(@Nullable Node node) {
+        if (node == null) return;
+        updateSubtree(node.left);
+        updateSubtree(node.right);
+        update(node);
+    }
+
+    private static void update(@NonNull Node node) {
+        node.size = 1 + size(node.left) + size(node.right);
+        node.totalItemCount = node.itemCount + totalItemCount(node.left) + totalItemCount(node.right);
+        if (node.left != null) node.left.parent = node;
+        if (node.right != null) node.right.parent = node;
+    }
+
+    private static int size(@Nullable Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static int totalItemCount(@Nullable Node node) {
+        return node == null ? 0 : node.totalItemCount;
+    }
+
+    @Nullable
+    private static Node first(@Nullable Node node) {
+        if (node == null) return null;
+        while (node.left != null) node = node.left;
+        return node;
+    }
+
+    @Nullable
+    private static Node successor(@NonNull Node node) {
+        if (node.right != null) return first(node.right);
+        Node current = node;
+        while (current.parent != null && current == current.parent.right) {
+            current = current.parent;
+        }
+        return current.parent;
+    }
+}
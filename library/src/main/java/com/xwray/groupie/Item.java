@@ -14,6 +14,11 @@ import java.util.concurrent.atomic.AtomicLong;
 
 public abstract class Item<VH extends ViewHolder> implements Group, SpanSizeProvider {
 
+    /**
+     * Returned by {@link #getContentHash()} when an item doesn't provide a content hash.
+     */
+    public static final long NO_CONTENT_HASH = Long.MIN_VALUE;
+
     private static AtomicLong ID_COUNTER = new AtomicLong(0);
     protected GroupDataObserver parentDataObserver;
     private final long id;
@@ -196,6 +201,20 @@ public abstract class Item<VH extends ViewHolder> implements Group, SpanSizeProv
         return getId() == other.getId();
     }
 
+    /**
+     * A fingerprint of the item's contents, for diffing items more cheaply than with equals().
+     * <p>
+     * When two items being compared by a diff both return a content hash, their contents are
+     * considered the same if and only if the hashes are equal, and equals() isn't called.  A hash
+     * collision therefore hides a change, so use a strong hash of every field that affects binding.
+     * <p>
+     * Called once per item per diff, possibly on a background thread.  The default implementation
+     * returns {@link #NO_CONTENT_HASH}, which means equals() is used.
+     */
+    public long getContentHash() {
+        return NO_CONTENT_HASH;
+    }
+
     @Nullable
     public Object getChangePayload(Item newItem) {
         return null;
@@ -0,0 +1,16 @@
+package com.xwray.groupie;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.ListUpdateCallback;
+
+/**
+ * The result of diffing two lists of items, ready to be dispatched as change notifications.
+ */
+interface ListDiff {
+
+    /**
+     * Dispatch the operations which turn the old list into the new list, in an order in which
+     * each position is valid at the time it is dispatched.
+     */
+    void dispatchUpdatesTo(@NonNull ListUpdateCallback updateCallback);
+}
@@ -3,22 +3,87 @@ package com.xwray.groupie;
 import androidx.annotation.CallSuper;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.BatchingListUpdateCallback;
+import androidx.recyclerview.widget.ListUpdateCallback;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * A base implementation of the Group interface, which supports nesting of Groups to arbitrary depth.
  * You can make a NestedGroup which contains only Items, one which contains Groups, or a mixture.
  * <p>
  * It provides support for notifying the adapter about changes which happen in its child groups.
+ * <p>
+ * The total item count is cached and kept up to date from the insert and remove notifications of
+ * the group itself and of its children, so subclasses must notify every change to their structure.
+ * Use {@link #setConsistencyChecksEnabled(boolean)} in debug builds to detect groups which don't.
  */
 public abstract class NestedGroup implements Group, GroupDataObserver {
 
-    private final GroupDataObservable observable = new GroupDataObservable();
+    private static final int ITEM_COUNT_UNKNOWN = -1;
+
+    private static boolean consistencyChecksEnabled = false;
+
+    private final GroupDataObservable observable = new GroupDataObservable(this);
+
+    private int batchDepth = 0;
+
+    private int itemCount = ITEM_COUNT_UNKNOWN;
+
+    /**
+     * The items of this group when last captured, or null if it or a descendant has notified a
+     * change since.  Snapshots are immutable, so they may be read on any thread once captured.
+     */
+    @Nullable
+    private GroupSnapshot snapshot;
+
+    /**
+     * childItemOffsets[i] is the number of items before visible child group i, and its last entry
+     * is the item count.  childIndices holds the index of each visible child, by identity.  Both
+     * are built on first use and dropped whenever this group's children are added, removed or
+     * moved; a child changing size only shifts the offsets after it.
+     */
+    @Nullable
+    private int[] childItemOffsets;
+    @Nullable
+    private Map<Group, Integer> childIndices;
+    private boolean hasDuplicateChildren;
+
+    /**
+     * Verify cached item counts against the actual contents of every group on each access, and
+     * throw an {@link IllegalStateException} if a group changed size without notifying its parent.
+     * <p>
+     * This makes item counts linear instead of constant time, so only enable it in debug builds.
+     *
+     * @param enabled Whether to check cached item counts
+     */
+    public static void setConsistencyChecksEnabled(boolean enabled) {
+        consistencyChecksEnabled = enabled;
+    }
+
+    static boolean isConsistencyChecksEnabled() {
+        return consistencyChecksEnabled;
+    }
 
     public int getItemCount() {
+        if (itemCount == ITEM_COUNT_UNKNOWN) {
+            itemCount = computeItemCount();
+        } else if (consistencyChecksEnabled) {
+            final int actualItemCount = computeItemCount();
+            if (actualItemCount != itemCount) {
+                throw new IllegalStateException("Cached item count " + itemCount + " of " + this
+                        + " does not match its actual item count " + actualItemCount + ". A child group"
+                        + " changed size without notifying its observers.");
+            }
+        }
+        return itemCount;
+    }
+
+    private int computeItemCount() {
         int size = 0;
         for (int i = 0; i < getGroupCount(); i++) {
             Group group = getGroup(i);
@@ -27,6 +92,30 @@ public abstract class NestedGroup implements Group, GroupDataObserver {
         return size;
     }
 
+    /**
+     * Adjust the cached item count after a change to this group's own structure.  Nothing to do
+     * if the count hasn't been calculated yet, since it will be calculated from scratch.
+     */
+    private void onItemCountChanged(int delta) {
+        if (itemCount != ITEM_COUNT_UNKNOWN) {
+            itemCount += delta;
+        }
+    }
+
+    /**
+     * Adjust the cached item count after a child group changed size.  If the notification comes
+     * from a group that isn't one of our visible children, recalculate it instead.
+     */
+    private void onItemCountChanged(@NonNull Group group, int delta) {
+        shiftChildItemOffsets(group, delta);
+        if (itemCount == ITEM_COUNT_UNKNOWN) return;
+        if (getPosition(group) >= 0) {
+            itemCount += delta;
+        } else {
+            itemCount = computeItemCount();
+        }
+    }
+
     protected final int getItemCount(@NonNull Collection<? extends Group> groups) {
         int size = 0;
         for (Group group : groups) {
@@ -41,6 +130,11 @@ public abstract class NestedGroup implements Group, GroupDataObserver {
     }
 
     protected int getItemCountBeforeGroup(final int groupIndex) {
+        if (groupIndex <= 0) return 0;
+        if (!consistencyChecksEnabled) {
+            final int[] offsets = getChildItemOffsets();
+            if (groupIndex < offsets.length) return offsets[groupIndex];
+        }
         int size = 0;
         for (int i = 0; i < groupIndex; i++) {
             final Group currentGroup = getGroup(i);
@@ -49,6 +143,65 @@ public abstract class NestedGroup implements Group, GroupDataObserver {
         return size;
     }
 
+    /**
+     * @return The number of items before the group, or -1 if it isn't one of the visible child
+     * groups, for example because it's a collapsed child of an {@link ExpandableGroup}
+     */
+    int getItemCountBeforeVisibleGroup(@NonNull Group group) {
+        if (consistencyChecksEnabled) {
+            final int index = getPosition(group);
+            if (index < 0 || index >= getGroupCount() || getGroup(index) != group) return -1;
+            return getItemCountBeforeGroup(index);
+        }
+        final int[] offsets = getChildItemOffsets();
+        final Integer index = childIndices.get(group);
+        return index == null ? -1 : offsets[index];
+    }
+
+    @NonNull
+    private int[] getChildItemOffsets() {
+        if (childItemOffsets == null) {
+            final int groupCount = getGroupCount();
+            final int[] offsets = new int[groupCount + 1];
+            final Map<Group, Integer> indices = new IdentityHashMap<>(groupCount);
+            boolean hasDuplicates = false;
+            for (int i = 0; i < groupCount; i++) {
+                final Group group = getGroup(i);
+                if (indices.containsKey(group)) {
+                    hasDuplicates = true;
+                } else {
+                    indices.put(group, i);
+                }
+                offsets[i + 1] = offsets[i] + group.getItemCount();
+            }
+            childItemOffsets = offsets;
+            childIndices = indices;
+            hasDuplicateChildren = hasDuplicates;
+        }
+        return childItemOffsets;
+    }
+
+    /**
+     * Keep the cached child offsets up to date after a child changed size, which only moves the
+     * children after it.
+     */
+    private void shiftChildItemOffsets(@NonNull Group group, int delta) {
+        if (childItemOffsets == null) return;
+        final Integer index = childIndices.get(group);
+        if (index == null || hasDuplicateChildren) {
+            invalidateChildItemOffsets();
+            return;
+        }
+        for (int i = index + 1; i < childItemOffsets.length; i++) {
+            childItemOffsets[i] += delta;
+        }
+    }
+
+    private void invalidateChildItemOffsets() {
+        childItemOffsets = null;
+        childIndices = null;
+    }
+
     @NonNull
     public abstract Group getGroup(int position);
 
@@ -88,8 +241,66 @@ public abstract class NestedGroup implements Group, GroupDataObserver {
 
     public abstract int getPosition(@NonNull Group group);
 
+    /**
+     * Start buffering this group's change notifications, until the matching {@link #endBatch()}.
+     * Adjacent notifications are merged into ranges as they arrive, so a series of changes to
+     * neighbouring positions reaches the observers, and each parent above, as one notification.
+     * <p>
+     * Batches may be nested, in which case notifications are only dispatched once the outermost
+     * batch ends.  Observers only see this group's size change as the merged notifications are
+     * dispatched, so don't modify its parent groups while a batch is open.
+     */
+    public void beginBatch() {
+        if (batchDepth++ == 0) {
+            observable.beginBatch();
+        }
+    }
+
+    /**
+     * End a batch started with {@link #beginBatch()}, dispatching the buffered notifications if it
+     * was the outermost one.
+     */
+    public void endBatch() {
+        if (batchDepth == 0) {
+            throw new IllegalStateException("endBatch() called without a matching beginBatch()");
+        }
+        if (--batchDepth > 0) return;
+        // Notifications made while committing are still buffered, so they merge with the batch
+        onBatchCommit();
+        observable.endBatch();
+    }
+
+    /**
+     * @return Whether a batch is open, in which case notifications are buffered
+     */
+    protected final boolean isBatching() {
+        return batchDepth > 0;
+    }
+
+    /**
+     * Called when the outermost batch ends, before its notifications are dispatched, to make any
+     * changes which were deferred while it was open.
+     */
+    protected void onBatchCommit() {
+    }
+
+    /**
+     * @return The items currently in this group, captured now unless nothing has changed since the
+     * last capture
+     */
+    @NonNull
+    GroupSnapshot getSnapshot() {
+        if (snapshot == null || consistencyChecksEnabled) {
+            snapshot = GroupSnapshot.of(this);
+        }
+        return snapshot;
+    }
+
     @Override
     public final void registerGroupDataObserver(@NonNull GroupDataObserver groupDataObserver) {
+        // Observers may ask for our item count while we dispatch a change, after the structure has
+        // already changed; make sure the cached count exists before that can happen
+        getItemCount();
         observable.registerObserver(groupDataObserver);
     }
 
@@ -98,13 +309,24 @@ public abstract class NestedGroup implements Group, GroupDataObserver {
         observable.unregisterObserver(groupDataObserver);
     }
 
+    /**
+     * @return The observer of this group, which is normally its parent, or null if it has none or
+     * several
+     */
+    @Nullable
+    GroupDataObserver getParentObserver() {
+        return observable.getSingleObserver();
+    }
+
     @CallSuper
     public void add(@NonNull Group group) {
+        onStructureChanged();
         group.registerGroupDataObserver(this);
     }
 
     @CallSuper
     public void addAll(@NonNull Collection<? extends Group> groups) {
+        onStructureChanged();
         for (Group group : groups) {
             group.registerGroupDataObserver(this);
         }
@@ -112,11 +334,13 @@ public abstract class NestedGroup implements Group, GroupDataObserver {
 
     @CallSuper
     public void add(int position, @NonNull Group group) {
+        onStructureChanged();
         group.registerGroupDataObserver(this);
     }
 
     @CallSuper
     public void addAll(int position, @NonNull Collection<? extends Group> groups) {
+        onStructureChanged();
         for (Group group : groups) {
             group.registerGroupDataObserver(this);
         }
@@ -124,11 +348,13 @@ public abstract class NestedGroup implements Group, GroupDataObserver {
 
     @CallSuper
     public void remove(@NonNull Group group) {
+        onStructureChanged();
         group.unregisterGroupDataObserver(this);
     }
 
     @CallSuper
     public void removeAll(@NonNull Collection<? extends Group> groups) {
+        onStructureChanged();
         for (Group group : groups) {
             group.unregisterGroupDataObserver(this);
         }
@@ -142,64 +368,97 @@ public abstract class NestedGroup implements Group, GroupDataObserver {
     @CallSuper
     @Override
     public void onChanged(@NonNull Group group) {
+        snapshot = null;
+        if (!observable.hasObservers()) return;
         observable.onItemRangeChanged(this, getItemCountBeforeGroup(group), group.getItemCount());
     }
 
     @CallSuper
     @Override
     public void onItemInserted(@NonNull Group group, int position) {
+        snapshot = null;
+        onItemCountChanged(group, 1);
+        if (!observable.hasObservers()) return;
         observable.onItemInserted(this, getItemCountBeforeGroup(group) + position);
     }
 
     @CallSuper
     @Override
     public void onItemChanged(@NonNull Group group, int position) {
+        snapshot = null;
+        if (!observable.hasObservers()) return;
         observable.onItemChanged(this, getItemCountBeforeGroup(group) + position);
     }
 
     @CallSuper
     @Override
     public void onItemChanged(@NonNull Group group, int position, Object payload) {
+        snapshot = null;
+        if (!observable.hasObservers()) return;
         observable.onItemChanged(this, getItemCountBeforeGroup(group) + position, payload);
     }
 
     @CallSuper
     @Override
     public void onItemRemoved(@NonNull Group group, int position) {
+        snapshot = null;
+        onItemCountChanged(group, -1);
+        if (!observable.hasObservers()) return;
         observable.onItemRemoved(this, getItemCountBeforeGroup(group) + position);
     }
 
     @CallSuper
     @Override
     public void onItemRangeChanged(@NonNull Group group, int positionStart, int itemCount) {
+        snapshot = null;
+        if (!observable.hasObservers()) return;
         observable.onItemRangeChanged(this, getItemCountBeforeGroup(group) + positionStart, itemCount);
     }
 
     @CallSuper
     @Override
     public void onItemRangeChanged(@NonNull Group group, int positionStart, int itemCount, Object payload) {
+        snapshot = null;
+        if (!observable.hasObservers()) return;
         observable.onItemRangeChanged(this, getItemCountBeforeGroup(group) + positionStart, itemCount, payload);
     }
 
     @CallSuper
     @Override
     public void onItemRangeInserted(@NonNull Group group, int positionStart, int itemCount) {
+        snapshot = null;
+        onItemCountChanged(group, itemCount);
+        if (!observable.hasObservers()) return;
         observable.onItemRangeInserted(this, getItemCountBeforeGroup(group) + positionStart, itemCount);
     }
 
     @CallSuper
     @Override
     public void onItemRangeRemoved(@NonNull Group group, int positionStart, int itemCount) {
+        snapshot = null;
+        onItemCountChanged(group, -itemCount);
+        if (!observable.hasObservers()) return;
         observable.onItemRangeRemoved(this, getItemCountBeforeGroup(group) + positionStart, itemCount);
     }
 
     @CallSuper
     @Override
     public void onItemMoved(@NonNull Group group, int fromPosition, int toPosition) {
+        snapshot = null;
+        if (!observable.hasObservers()) return;
         int groupPosition = getItemCountBeforeGroup(group);
         observable.onItemMoved(this, groupPosition + fromPosition, groupPosition + toPosition);
     }
 
+    /**
+     * Drop the snapshot and the child offsets, which adding, removing or moving this group's
+     * children may change.
+     */
+    private void onStructureChanged() {
+        snapshot = null;
+        invalidateChildItemOffsets();
+    }
+
     /**
      * A group should use this to notify that there is a change in itself.
      *
@@ -208,135 +467,384 @@ public abstract class NestedGroup implements Group, GroupDataObserver {
      */
     @CallSuper
     public void notifyItemRangeInserted(int positionStart, int itemCount) {
+        onStructureChanged();
+        onItemCountChanged(itemCount);
         observable.onItemRangeInserted(this, positionStart, itemCount);
     }
 
     @CallSuper
     public void notifyItemRangeRemoved(int positionStart, int itemCount) {
+        onStructureChanged();
+        onItemCountChanged(-itemCount);
         observable.onItemRangeRemoved(this, positionStart, itemCount);
     }
 
     @CallSuper
     public void notifyItemMoved(int fromPosition, int toPosition) {
+        onStructureChanged();
         observable.onItemMoved(this, fromPosition, toPosition);
     }
 
     @CallSuper
     public void notifyChanged() {
+        onStructureChanged();
         observable.onChanged(this);
     }
 
     @CallSuper
     public void notifyItemInserted(int position) {
+        onStructureChanged();
+        onItemCountChanged(1);
         observable.onItemInserted(this, position);
     }
 
     @CallSuper
     public void notifyItemChanged(int position) {
+        snapshot = null;
         observable.onItemChanged(this, position);
     }
 
     @CallSuper
     public void notifyItemChanged(int position, @Nullable Object payload) {
+        snapshot = null;
         observable.onItemChanged(this, position, payload);
     }
 
     @CallSuper
     public void notifyItemRemoved(int position) {
+        onStructureChanged();
+        onItemCountChanged(-1);
         observable.onItemRemoved(this, position);
     }
 
     @CallSuper
     public void notifyItemRangeChanged(int positionStart, int itemCount) {
+        snapshot = null;
         observable.onItemRangeChanged(this, positionStart, itemCount);
     }
 
     @CallSuper
     public void notifyItemRangeChanged(int positionStart, int itemCount, Object payload) {
+        snapshot = null;
         observable.onItemRangeChanged(this, positionStart, itemCount, payload);
     }
 
     /**
-     * Iterate in reverse order in case any observer decides to remove themself from the list
-     * in their callback
+     * Dispatches notifications to the group's observers, of which there is usually exactly one.
+     * <p>
+     * A single observer is kept in its own field, and several in an array which is replaced on
+     * every registration, so dispatch neither allocates nor locks and the observers can be read
+     * from any thread.  Only registration is synchronized.  Each dispatch iterates over the array
+     * it started with, so observers may unregister themselves in their callbacks.
      */
     private static class GroupDataObservable {
-        final List<GroupDataObserver> observers = new ArrayList<>();
+        private static final GroupDataObserver[] NO_OBSERVERS = new GroupDataObserver[0];
+
+        /**
+         * The only observer, or null if there are none or several.
+         */
+        @Nullable
+        private volatile GroupDataObserver singleObserver;
+
+        /**
+         * The observers when there are several, otherwise empty.  Never modified once published.
+         */
+        @NonNull
+        private volatile GroupDataObserver[] observers = NO_OBSERVERS;
+
+        private final Group group;
+
+        /**
+         * Merges the notifications made while a batch is open, or null if none is.
+         */
+        @Nullable
+        private BatchingListUpdateCallback batch;
+
+        /**
+         * Dispatches the merged notifications of a batch to the observers.
+         */
+        private final ListUpdateCallback batchTarget = new ListUpdateCallback() {
+            @Override
+            public void onInserted(int position, int count) {
+                dispatchItemRangeInserted(group, position, count);
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                dispatchItemRangeRemoved(group, position, count);
+            }
+
+            @Override
+            public void onMoved(int fromPosition, int toPosition) {
+                dispatchItemMoved(group, fromPosition, toPosition);
+            }
+
+            @Override
+            public void onChanged(int position, int count, @Nullable Object payload) {
+                if (payload == null) {
+                    dispatchItemRangeChanged(group, position, count);
+                } else {
+                    dispatchItemRangeChanged(group, position, count, payload);
+                }
+            }
+        };
+
+        GroupDataObservable(@NonNull Group group) {
+            this.group = group;
+        }
+
+        @Nullable
+        GroupDataObserver getSingleObserver() {
+            return singleObserver;
+        }
+
+        boolean hasObservers() {
+            return singleObserver != null || observers.length > 0;
+        }
+
+        void beginBatch() {
+            batch = new BatchingListUpdateCallback(batchTarget);
+        }
+
+        void endBatch() {
+            final BatchingListUpdateCallback batch = this.batch;
+            this.batch = null;
+            batch.dispatchLastEvent();
+        }
 
         void onItemRangeChanged(Group group, int positionStart, int itemCount) {
-            for (int i = observers.size() - 1; i >= 0; i--) {
-                observers.get(i).onItemRangeChanged(group, positionStart, itemCount);
+            if (batch != null) {
+                batch.onChanged(positionStart, itemCount, null);
+                return;
+            }
+            dispatchItemRangeChanged(group, positionStart, itemCount);
+        }
+
+        private void dispatchItemRangeChanged(Group group, int positionStart, int itemCount) {
+            final GroupDataObserver observer = singleObserver;
+            if (observer != null) {
+                observer.onItemRangeChanged(group, positionStart, itemCount);
+                return;
+            }
+            final GroupDataObserver[] observers = this.observers;
+            for (int i = observers.length - 1; i >= 0; i--) {
+                observers[i].onItemRangeChanged(group, positionStart, itemCount);
             }
         }
 
         void onItemRangeChanged(Group group, int positionStart, int itemCount, Object payload) {
-            for (int i = observers.size() - 1; i >= 0; i--) {
-                observers.get(i).onItemRangeChanged(group, positionStart, itemCount, payload);
+            if (batch != null) {
+                batch.onChanged(positionStart, itemCount, payload);
+                return;
+            }
+            dispatchItemRangeChanged(group, positionStart, itemCount, payload);
+        }
+
+        private void dispatchItemRangeChanged(Group group, int positionStart, int itemCount, Object payload) {
+            final GroupDataObserver observer = singleObserver;
+            if (observer != null) {
+                observer.onItemRangeChanged(group, positionStart, itemCount, payload);
+                return;
+            }
+            final GroupDataObserver[] observers = this.observers;
+            for (int i = observers.length - 1; i >= 0; i--) {
+                observers[i].onItemRangeChanged(group, positionStart, itemCount, payload);
             }
         }
 
         void onItemInserted(Group group, int position) {
-            for (int i = observers.size() - 1; i >= 0; i--) {
-                observers.get(i).onItemInserted(group, position);
+            if (batch != null) {
+                batch.onInserted(position, 1);
+                return;
+            }
+            final GroupDataObserver observer = singleObserver;
+            if (observer != null) {
+                observer.onItemInserted(group, position);
+                return;
+            }
+            final GroupDataObserver[] observers = this.observers;
+            for (int i = observers.length - 1; i >= 0; i--) {
+                observers[i].onItemInserted(group, position);
             }
         }
 
         void onItemChanged(Group group, int position) {
-            for (int i = observers.size() - 1; i >= 0; i--) {
-                observers.get(i).onItemChanged(group, position);
+            if (batch != null) {
+                batch.onChanged(position, 1, null);
+                return;
+            }
+            final GroupDataObserver observer = singleObserver;
+            if (observer != null) {
+                observer.onItemChanged(group, position);
+                return;
+            }
+            final GroupDataObserver[] observers = this.observers;
+            for (int i = observers.length - 1; i >= 0; i--) {
+                observers[i].onItemChanged(group, position);
             }
         }
 
         void onItemChanged(Group group, int position, Object payload) {
-            for (int i = observers.size() - 1; i >= 0; i--) {
-                observers.get(i).onItemChanged(group, position, payload);
+            if (batch != null) {
+                batch.onChanged(position, 1, payload);
+                return;
+            }
+            final GroupDataObserver observer = singleObserver;
+            if (observer != null) {
+                observer.onItemChanged(group, position, payload);
+                return;
+            }
+            final GroupDataObserver[] observers = this.observers;
+            for (int i = observers.length - 1; i >= 0; i--) {
+                observers[i].onItemChanged(group, position, payload);
             }
         }
 
         void onItemRemoved(Group group, int position) {
-            for (int i = observers.size() - 1; i >= 0; i--) {
-                observers.get(i).onItemRemoved(group, position);
+            if (batch != null) {
+                batch.onRemoved(position, 1);
+                return;
+            }
+            final GroupDataObserver observer = singleObserver;
+            if (observer != null) {
+                observer.onItemRemoved(group, position);
+                return;
+            }
+            final GroupDataObserver[] observers = this.observers;
+            for (int i = observers.length - 1; i >= 0; i--) {
+                observers[i].onItemRemoved(group, position);
             }
         }
 
         void onItemRangeInserted(Group group, int positionStart, int itemCount) {
-            for (int i = observers.size() - 1; i >= 0; i--) {
-                observers.get(i).onItemRangeInserted(group, positionStart, itemCount);
+            if (batch != null) {
+                batch.onInserted(positionStart, itemCount);
+                return;
+            }
+            dispatchItemRangeInserted(group, positionStart, itemCount);
+        }
+
+        private void dispatchItemRangeInserted(Group group, int positionStart, int itemCount) {
+            final GroupDataObserver observer = singleObserver;
+            if (observer != null) {
+                observer.onItemRangeInserted(group, positionStart, itemCount);
+                return;
+            }
+            final GroupDataObserver[] observers = this.observers;
+            for (int i = observers.length - 1; i >= 0; i--) {
+                observers[i].onItemRangeInserted(group, positionStart, itemCount);
             }
         }
 
         void onItemRangeRemoved(Group group, int positionStart, int itemCount) {
-            for (int i = observers.size() - 1; i >= 0; i--) {
-                observers.get(i).onItemRangeRemoved(group, positionStart, itemCount);
+            if (batch != null) {
+                batch.onRemoved(positionStart, itemCount);
+                return;
+            }
+            dispatchItemRangeRemoved(group, positionStart, itemCount);
+        }
+
+        private void dispatchItemRangeRemoved(Group group, int positionStart, int itemCount) {
+            final GroupDataObserver observer = singleObserver;
+            if (observer != null) {
+                observer.onItemRangeRemoved(group, positionStart, itemCount);
+                return;
+            }
+            final GroupDataObserver[] observers = this.observers;
+            for (int i = observers.length - 1; i >= 0; i--) {
+                observers[i].onItemRangeRemoved(group, positionStart, itemCount);
             }
         }
 
         void onItemMoved(Group group, int fromPosition, int toPosition) {
-            for (int i = observers.size() - 1; i >= 0; i--) {
-                observers.get(i).onItemMoved(group, fromPosition, toPosition);
+            if (batch != null) {
+                batch.onMoved(fromPosition, toPosition);
+                return;
+            }
+            dispatchItemMoved(group, fromPosition, toPosition);
+        }
+
+        private void dispatchItemMoved(Group group, int fromPosition, int toPosition) {
+            final GroupDataObserver observer = singleObserver;
+            if (observer != null) {
+                observer.onItemMoved(group, fromPosition, toPosition);
+                return;
+            }
+            final GroupDataObserver[] observers = this.observers;
+            for (int i = observers.length - 1; i >= 0; i--) {
+                observers[i].onItemMoved(group, fromPosition, toPosition);
             }
         }
 
         void onChanged(Group group) {
-            for (int i = observers.size() - 1; i >= 0; i--) {
-                observers.get(i).onChanged(group);
+            if (batch != null) {
+                batch.onChanged(0, group.getItemCount(), null);
+                return;
+            }
+            final GroupDataObserver observer = singleObserver;
+            if (observer != null) {
+                observer.onChanged(group);
+                return;
+            }
+            final GroupDataObserver[] observers = this.observers;
+            for (int i = observers.length - 1; i >= 0; i--) {
+                observers[i].onChanged(group);
             }
         }
 
-        void registerObserver(GroupDataObserver observer) {
-            synchronized(observers) {
-                if (observers.contains(observer)) {
+        void registerObserver(@NonNull GroupDataObserver observer) {
+            synchronized (this) {
+                final GroupDataObserver singleObserver = this.singleObserver;
+                final GroupDataObserver[] observers = this.observers;
+                if (observer == singleObserver || indexOf(observers, observer) >= 0) {
                     throw new IllegalStateException("Observer " + observer + " is already registered.");
                 }
-                observers.add(observer);
+                if (singleObserver == null && observers.length == 0) {
+                    this.singleObserver = observer;
+                    return;
+                }
+                final GroupDataObserver[] newObservers;
+                if (singleObserver != null) {
+                    newObservers = new GroupDataObserver[] { singleObserver, observer };
+                } else {
+                    newObservers = Arrays.copyOf(observers, observers.length + 1);
+                    newObservers[observers.length] = observer;
+                }
+                // Publish the array before clearing the single observer, so that a concurrent
+                // dispatch sees one or the other and never neither
+                this.observers = newObservers;
+                this.singleObserver = null;
+            }
+        }
+
+        void unregisterObserver(@NonNull GroupDataObserver observer) {
+            synchronized (this) {
+                if (observer == singleObserver) {
+                    singleObserver = null;
+                    return;
+                }
+                final GroupDataObserver[] observers = this.observers;
+                final int index = indexOf(observers, observer);
+                if (index < 0) {
+                    throw new IllegalStateException("Observer " + observer + " was not registered.");
+                }
+                if (observers.length == 2) {
+                    singleObserver = observers[1 - index];
+                    this.observers = NO_OBSERVERS;
+                    return;
+                }
+                final GroupDataObserver[] newObservers = new GroupDataObserver[observers.length - 1];
+                System.arraycopy(observers, 0, newObservers, 0, index);
+                System.arraycopy(observers, index + 1, newObservers, index, observers.length - index - 1);
+                this.observers = newObservers;
             }
         }
 
-        void unregisterObserver(GroupDataObserver observer) {
-            synchronized(observers) {
-                int index = observers.indexOf(observer);
-                observers.remove(index);
+        private static int indexOf(@NonNull GroupDataObserver[] observers, @NonNull GroupDataObserver observer) {
+            for (int i = 0; i < observers.length; i++) {
+                if (observers[i] == observer) return i;
             }
+            return -1;
         }
     }
 }
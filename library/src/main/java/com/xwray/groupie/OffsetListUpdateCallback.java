@@ -0,0 +1,38 @@
+package com.xwray.groupie;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.ListUpdateCallback;
+
+/**
+ * Forwards the operations of a diff over part of a list, shifting them to the position at which
+ * that part starts.
+ */
+class OffsetListUpdateCallback implements ListUpdateCallback {
+    @NonNull private final ListUpdateCallback callback;
+    private final int offset;
+
+    OffsetListUpdateCallback(@NonNull ListUpdateCallback callback, int offset) {
+        this.callback = callback;
+        this.offset = offset;
+    }
+
+    @Override
+    public void onInserted(int position, int count) {
+        callback.onInserted(offset + position, count);
+    }
+
+    @Override
+    public void onRemoved(int position, int count) {
+        callback.onRemoved(offset + position, count);
+    }
+
+    @Override
+    public void onMoved(int fromPosition, int toPosition) {
+        callback.onMoved(offset + fromPosition, offset + toPosition);
+    }
+
+    @Override
+    public void onChanged(int position, int count, Object payload) {
+        callback.onChanged(offset + position, count, payload);
+    }
+}
@@ -0,0 +1,17 @@
+package com.xwray.groupie;
+
+import androidx.annotation.NonNull;
+
+/**
+ * An {@link OnAsyncUpdateListener} which is also told when
+ * {@link GroupAdapter#addAllAsync(java.util.concurrent.Callable, OnAsyncUpdateListener)}
+ * fails to build its groups.  Without it, the failure is rethrown on the main thread.
+ */
+public interface OnAsyncUpdateFailedListener extends OnAsyncUpdateListener {
+    /**
+     * Called on the main thread instead of {@link #onUpdateComplete()}.  Nothing was added.
+     *
+     * @param e The exception thrown while building the groups
+     */
+    void onUpdateFailed(@NonNull Exception e);
+}
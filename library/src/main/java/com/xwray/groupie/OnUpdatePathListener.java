@@ -0,0 +1,11 @@
+package com.xwray.groupie;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Listener that is told, on the main thread, which {@link UpdatePath} each update took once its
+ * change notifications have been dispatched.
+ */
+public interface OnUpdatePathListener {
+    void onUpdatePath(@NonNull UpdatePath path);
+}
@@ -0,0 +1,177 @@
+package com.xwray.groupie;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.BatchingListUpdateCallback;
+import androidx.recyclerview.widget.ListUpdateCallback;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Applies a list of {@link PatchOperation}s to a list of groups, and records the item range
+ * notifications they cause so that they can be dispatched once the structure is final, like a
+ * diff.
+ * <p>
+ * Item positions come from the item counts tracked by {@link IndexedGroupList}, so each operation
+ * costs O(log n) however long the list is.  Notifications are coalesced as they're recorded, so
+ * a run of adjacent operations is dispatched as a single range.
+ */
+final class Patch implements ListDiff, ListUpdateCallback {
+
+    private static final int INSERT = 0;
+    private static final int REMOVE = 1;
+    private static final int MOVE = 2;
+    private static final int CHANGE = 3;
+
+    /**
+     * Notifications as (type, position, count or move target) triples, in dispatch order.
+     */
+    private int[] notifications = new int[3 * 16];
+    private int notificationCount = 0;
+
+    /**
+     * The payload of each CHANGE notification, in order.
+     */
+    private final List<Object> payloads = new ArrayList<>();
+
+    private Patch() {
+    }
+
+    /**
+     * Apply the operations to the groups, registering the observer with inserted groups and
+     * unregistering it from removed ones.
+     *
+     * @return The notifications to dispatch for the operations
+     */
+    @NonNull
+    static Patch apply(@NonNull List<PatchOperation> operations, @NonNull IndexedGroupList groups,
+                       @NonNull GroupDataObserver observer) {
+        final Patch patch = new Patch();
+        final BatchingListUpdateCallback callback = new BatchingListUpdateCallback(patch);
+        for (PatchOperation operation : operations) {
+            final int index = operation.index;
+            switch (operation.type) {
+                case PatchOperation.INSERT: {
+                    final Group group = operation.group;
+                    groups.add(index, group);
+                    group.registerGroupDataObserver(observer);
+                    final int itemCount = group.getItemCount();
+                    if (itemCount > 0) callback.onInserted(groups.getItemCountBefore(index), itemCount);
+                    break;
+                }
+                case PatchOperation.REMOVE: {
+                    final int position = groups.getItemCountBefore(index);
+                    final Group group = groups.remove(index);
+                    group.unregisterGroupDataObserver(observer);
+                    final int itemCount = group.getItemCount();
+                    if (itemCount > 0) callback.onRemoved(position, itemCount);
+                    break;
+                }
+                case PatchOperation.MOVE: {
+                    final int fromPosition = groups.getItemCountBefore(index);
+                    final Group group = groups.remove(index);
+                    groups.add(operation.toIndex, group);
+                    final int toPosition = groups.getItemCountBefore(operation.toIndex);
+                    moveRange(callback, fromPosition, toPosition, group.getItemCount());
+                    break;
+                }
+                case PatchOperation.CHANGE: {
+                    final int itemCount = groups.get(index).getItemCount();
+                    if (itemCount > 0) {
+                        callback.onChanged(groups.getItemCountBefore(index), itemCount, operation.payload);
+                    }
+                    break;
+                }
+                case PatchOperation.REPLACE: {
+                    final Group group = operation.group;
+                    final int position = groups.getItemCountBefore(index);
+                    final Group previous = groups.set(index, group);
+                    if (previous != group) {
+                        previous.unregisterGroupDataObserver(observer);
+                        group.registerGroupDataObserver(observer);
+                    }
+                    final int previousItemCount = previous.getItemCount();
+                    final int itemCount = group.getItemCount();
+                    if (previousItemCount == itemCount) {
+                        if (itemCount > 0) callback.onChanged(position, itemCount, null);
+                    } else {
+                        if (previousItemCount > 0) callback.onRemoved(position, previousItemCount);
+                        if (itemCount > 0) callback.onInserted(position, itemCount);
+                    }
+                    break;
+                }
+            }
+        }
+        callback.dispatchLastEvent();
+        return patch;
+    }
+
+    /**
+     * Notify a move of a range of items, one item at a time, keeping their order.
+     *
+     * @param toPosition The position of the first item once the range has moved
+     */
+    private static void moveRange(@NonNull ListUpdateCallback callback, int fromPosition, int toPosition, int count) {
+        if (fromPosition == toPosition) return;
+        for (int k = 0; k < count; k++) {
+            if (toPosition < fromPosition) {
+                callback.onMoved(fromPosition + k, toPosition + k);
+            } else {
+                callback.onMoved(fromPosition, toPosition + count - 1);
+            }
+        }
+    }
+
+    @Override
+    public void onInserted(int position, int count) {
+        record(INSERT, position, count);
+    }
+
+    @Override
+    public void onRemoved(int position, int count) {
+        record(REMOVE, position, count);
+    }
+
+    @Override
+    public void onMoved(int fromPosition, int toPosition) {
+        record(MOVE, fromPosition, toPosition);
+    }
+
+    @Override
+    public void onChanged(int position, int count, Object payload) {
+        record(CHANGE, position, count);
+        payloads.add(payload);
+    }
+
+    private void record(int type, int position, int countOrTarget) {
+        if (notificationCount + 3 > notifications.length) {
+            notifications = Arrays.copyOf(notifications, notifications.length * 2);
+        }
+        notifications[notificationCount++] = type;
+        notifications[notificationCount++] = position;
+        notifications[notificationCount++] = countOrTarget;
+    }
+
+    @Override
+    public void dispatchUpdatesTo(@NonNull ListUpdateCallback updateCallback) {
+        int payloadIndex = 0;
+        for (int k = 0; k < notificationCount; k += 3) {
+            final int position = notifications[k + 1];
+            switch (notifications[k]) {
+                case INSERT:
+                    updateCallback.onInserted(position, notifications[k + 2]);
+                    break;
+                case REMOVE:
+                    updateCallback.onRemoved(position, notifications[k + 2]);
+                    break;
+                case MOVE:
+                    updateCallback.onMoved(position, notifications[k + 2]);
+                    break;
+                case CHANGE:
+                    updateCallback.onChanged(position, notifications[k + 2], payloads.get(payloadIndex++));
+                    break;
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.xwray.groupie;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.List;
+
+/**
+ * One step of a patch applied with {@link Section#applyPatch(List)} or
+ * {@link GroupAdapter#applyPatch(List)}, for when the exact changes are already known and the
+ * new list doesn't need to be diffed against the old one.
+ * <p>
+ * Indices are indices of top-level groups (the body groups of a section), not item positions.
+ * Like the operations of a diff, each index refers to the list as it is after all of the
+ * previous operations in the patch have been applied.
+ */
+public final class PatchOperation {
+
+    static final int INSERT = 0;
+    static final int REMOVE = 1;
+    static final int MOVE = 2;
+    static final int CHANGE = 3;
+    static final int REPLACE = 4;
+
+    final int type;
+    final int index;
+    final int toIndex;
+    @Nullable final Group group;
+    @Nullable final Object payload;
+
+    private PatchOperation(int type, int index, int toIndex, @Nullable Group group, @Nullable Object payload) {
+        this.type = type;
+        this.index = index;
+        this.toIndex = toIndex;
+        this.group = group;
+        this.payload = payload;
+    }
+
+    /**
+     * Insert a group so that it ends up at the index.
+     */
+    @NonNull
+    public static PatchOperation insert(int index, @NonNull Group group) {
+        return new PatchOperation(INSERT, index, index, group, null);
+    }
+
+    /**
+     * Remove the group at the index.
+     */
+    @NonNull
+    public static PatchOperation remove(int index) {
+        return new PatchOperation(REMOVE, index, index, null, null);
+    }
+
+    /**
+     * Move the group at one index so that it ends up at the other.
+     */
+    @NonNull
+    public static PatchOperation move(int fromIndex, int toIndex) {
+        return new PatchOperation(MOVE, fromIndex, toIndex, null, null);
+    }
+
+    /**
+     * Rebind the items of the group at the index, whose data changed in place.
+     *
+     * @param payload Optional payload passed to {@link Item#bind(ViewHolder, int, List)}
+     */
+    @NonNull
+    public static PatchOperation change(int index, @Nullable Object payload) {
+        return new PatchOperation(CHANGE, index, index, null, payload);
+    }
+
+    /**
+     * Replace the group at the index with a new version of it.  If both have the same number of
+     * items, they're reported as changed, otherwise as removed and inserted.
+     */
+    @NonNull
+    public static PatchOperation replace(int index, @NonNull Group group) {
+        return new PatchOperation(REPLACE, index, index, group, null);
+    }
+}
@@ -0,0 +1,19 @@
+package com.xwray.groupie;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * A diff whose inputs have been captured on the main thread, ready to be calculated on any thread.
+ */
+interface PendingDiff {
+
+    /**
+     * @param cancellationCheck Polled during {@link #calculate()}, which throws
+     *                          {@link java.util.concurrent.CancellationException} once it returns true
+     */
+    void setCancellationCheck(@Nullable DiffCallback.CancellationCheck cancellationCheck);
+
+    @NonNull
+    ListDiff calculate();
+}
@@ -7,7 +7,10 @@ import androidx.recyclerview.widget.ListUpdateCallback;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
 
 /**
  * A group which has a list of contents and an optional header and footer.
@@ -22,7 +25,11 @@ public class Section extends NestedGroup {
     @Nullable
     private Group placeholder;
 
-    private final ArrayList<Group> children = new ArrayList<>();
+    /**
+     * Tracks the item count of every child, so that finding a child, its position and the child at
+     * a position are all O(log n) regardless of where children are added or removed.
+     */
+    private final IndexedGroupList children = new IndexedGroupList();
 
     private boolean hideWhenEmpty = false;
 
@@ -30,6 +37,19 @@ public class Section extends NestedGroup {
 
     private boolean isPlaceholderVisible = false;
 
+    private DiffStrategy diffStrategy = DiffStrategy.MYERS;
+
+    private float bulkUpdateThreshold = DiffEngine.NO_BULK_UPDATE;
+
+    @Nullable
+    private OnUpdatePathListener onUpdatePathListener;
+
+    /**
+     * Created by the first async update, since most sections are only updated synchronously.
+     */
+    @Nullable
+    private AsyncDiffUtil asyncDiffUtil;
+
     public Section() {
         this(null, new ArrayList<Group>());
     }
@@ -54,7 +74,7 @@ public class Section extends NestedGroup {
     public void add(int position, @NonNull Group group) {
         super.add(position, group);
         children.add(position, group);
-        final int notifyPosition = getHeaderItemCount() + getItemCount(children.subList(0, position));
+        final int notifyPosition = getBodyItemStart() + children.getItemCountBefore(position);
         notifyItemRangeInserted(notifyPosition, group.getItemCount());
         refreshEmptyState();
     }
@@ -64,8 +84,9 @@ public class Section extends NestedGroup {
         if (groups.isEmpty()) return;
         super.addAll(groups);
         int position = getItemCountWithoutFooter();
+        final int previousItemCount = children.getTotalItemCount();
         this.children.addAll(groups);
-        notifyItemRangeInserted(position, getItemCount(groups));
+        notifyItemRangeInserted(position, children.getTotalItemCount() - previousItemCount);
         refreshEmptyState();
     }
 
@@ -76,10 +97,11 @@ public class Section extends NestedGroup {
         }
 
         super.addAll(position, groups);
+        final int previousItemCount = children.getTotalItemCount();
         this.children.addAll(position, groups);
 
-        final int notifyPosition = getHeaderItemCount() + getItemCount(children.subList(0, position));
-        notifyItemRangeInserted(notifyPosition, getItemCount(groups));
+        final int notifyPosition = getBodyItemStart() + children.getItemCountBefore(position);
+        notifyItemRangeInserted(notifyPosition, children.getTotalItemCount() - previousItemCount);
         refreshEmptyState();
     }
 
@@ -94,28 +116,78 @@ public class Section extends NestedGroup {
 
     @Override
     public void remove(@NonNull Group group) {
+        final int index = children.indexOfGroup(group);
+        if (index < 0) return;
         super.remove(group);
         int position = getItemCountBeforeGroup(group);
-        children.remove(group);
+        children.remove(index);
         notifyItemRangeRemoved(position, group.getItemCount());
         refreshEmptyState();
     }
 
+    /**
+     * Remove the groups in one pass over the children, notifying each contiguous run of removed
+     * items as a single range.  Children are matched with equals(), and every child equal to one
+     * of the groups is removed.
+     */
     @Override
     public void removeAll(@NonNull Collection<? extends Group> groups) {
         if (groups.isEmpty()) {
             return;
         }
 
-        super.removeAll(groups);
-        for (Group group : groups) {
-            int position = getItemCountBeforeGroup(group);
-            children.remove(group);
-            notifyItemRangeRemoved(position, group.getItemCount());
+        final Set<Group> groupsToRemove = new HashSet<>(groups);
+        final List<Group> removedGroups = new ArrayList<>();
+        final List<Group> keptGroups = new ArrayList<>(children.size());
+        // (position, count) of each run of removed items, positioned as if the earlier runs were already removed
+        final List<int[]> removedRanges = new ArrayList<>();
+        int keptItemCount = 0;
+        int removedRunItemCount = 0;
+        for (Group group : children) {
+            if (groupsToRemove.contains(group)) {
+                removedGroups.add(group);
+                removedRunItemCount += group.getItemCount();
+                continue;
+            }
+            if (removedRunItemCount > 0) {
+                removedRanges.add(new int[]{keptItemCount, removedRunItemCount});
+                removedRunItemCount = 0;
+            }
+            keptGroups.add(group);
+            keptItemCount += group.getItemCount();
+        }
+        if (removedRunItemCount > 0) {
+            removedRanges.add(new int[]{keptItemCount, removedRunItemCount});
+        }
+        if (removedGroups.isEmpty()) {
+            return;
+        }
+
+        super.removeAll(removedGroups);
+        children.clear();
+        children.addAll(keptGroups);
+        final int bodyItemStart = getBodyItemStart();
+        for (int[] range : removedRanges) {
+            notifyItemRangeRemoved(bodyItemStart + range[0], range[1]);
         }
         refreshEmptyState();
     }
 
+    /**
+     * Apply a list of changes to the body content which are already known, such as those reported
+     * by a sync engine, without diffing.  Each operation is applied in O(log n), and the resulting
+     * notifications are coalesced into ranges and dispatched once the whole patch is applied.
+     *
+     * @param operations The operations to apply, in order
+     */
+    public void applyPatch(@NonNull List<PatchOperation> operations) {
+        if (operations.isEmpty()) {
+            return;
+        }
+        Patch.apply(operations, children, this).dispatchUpdatesTo(listUpdateCallback);
+        refreshEmptyState();
+    }
+
     /**
      * Remove all existing body content.
      */
@@ -132,7 +204,7 @@ public class Section extends NestedGroup {
      * <p>
      * Item comparisons are made using:
      * - Item.isSameAs(Item otherItem) (are items the same?)
-     * - Item.equals() (are contents the same?)
+     * - Item.getContentHash() if both items have one, otherwise Item.equals() (are contents the same?)
      * <p>
      * If you don't customize getId() or isSameAs() and equals(), the default implementations will return false,
      * meaning your Group will consider every update a complete change of everything.
@@ -152,7 +224,7 @@ public class Section extends NestedGroup {
      * <p>
      * Item comparisons are made using:
      * - Item.isSameAs(Item otherItem) (are items the same?)
-     * - Item.equals() (are contents the same?)
+     * - Item.getContentHash() if both items have one, otherwise Item.equals() (are contents the same?)
      * <p>
      * If you don't customize getId() or isSameAs() and equals(), the default implementations will return false,
      * meaning your Group will consider every update a complete change of everything.
@@ -164,107 +236,184 @@ public class Section extends NestedGroup {
     public void update(@NonNull final Collection<? extends Group> newBodyGroups, boolean detectMoves) {
 
         final List<Group> oldBodyGroups = new ArrayList<>(children);
-        final int oldBodyItemCount = getItemCount(oldBodyGroups);
-        final int newBodyItemCount = getItemCount(newBodyGroups);
+        final DiffCallback diffCallback = new DiffCallback(oldBodyGroups, newBodyGroups);
+        final int oldBodyItemCount = diffCallback.getOldListSize();
+        final int newBodyItemCount = diffCallback.getNewListSize();
 
-        final DiffUtil.DiffResult diffResult = DiffUtil.calculateDiff(new DiffUtil.Callback() {
-                @Override
-                public int getOldListSize() {
-                    return oldBodyItemCount;
-                }
+        final ListDiff diffResult = DiffEngine.calculateDiff(diffCallback, diffStrategy, detectMoves,
+                bulkUpdateThreshold);
 
-                @Override
-                public int getNewListSize() {
-                    return newBodyItemCount;
-                }
+        applyUpdate(newBodyGroups, diffResult);
+        if (newBodyItemCount == 0 || oldBodyItemCount == 0) {
+            refreshEmptyState();
+        }
+        reportUpdatePath(diffResult);
+    }
 
-                @Override
-                public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
-                    Item oldItem = getItem(oldBodyGroups, oldItemPosition);
-                    Item newItem = getItem(newBodyGroups, newItemPosition);
-                    return newItem.isSameAs(oldItem);
-                }
+    /**
+     * Replace all existing body content with a list that will be diffed on a background thread,
+     * and dispatch fine-grained change notifications to the parent once the diff is calculated.
+     * <p>
+     * The current body content is captured when this is called.  If this section is updated
+     * asynchronously again before the diff completes, the older result is discarded.
+     * <p>
+     * NOTE: Don't make other changes to the body content while an async update is in progress,
+     * or the diff result will no longer match the content it is applied to.
+     *
+     * This will default detectMoves to true.
+     *
+     * @see #updateAsync(Collection, boolean, OnAsyncUpdateListener)
+     * @param newBodyGroups The new content of the section
+     */
+    public void updateAsync(@NonNull final Collection<? extends Group> newBodyGroups) {
+        updateAsync(newBodyGroups, true, null);
+    }
 
-                @Override
-                public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
-                    Item oldItem = getItem(oldBodyGroups, oldItemPosition);
-                    Item newItem = getItem(newBodyGroups, newItemPosition);
-                    return newItem.equals(oldItem);
-                }
+    /**
+     * Replace all existing body content with a list that will be diffed on a background thread,
+     * and dispatch fine-grained change notifications to the parent once the diff is calculated.
+     *
+     * This will default detectMoves to true.
+     *
+     * @see #updateAsync(Collection, boolean, OnAsyncUpdateListener)
+     * @param newBodyGroups The new content of the section
+     * @param onAsyncUpdateListener Optional callback for when the async update is complete
+     */
+    public void updateAsync(@NonNull final Collection<? extends Group> newBodyGroups,
+                            @Nullable final OnAsyncUpdateListener onAsyncUpdateListener) {
+        updateAsync(newBodyGroups, true, onAsyncUpdateListener);
+    }
 
-            @Nullable
-            @Override
-            public Object getChangePayload(int oldItemPosition, int newItemPosition) {
-                Item oldItem = getItem(oldBodyGroups, oldItemPosition);
-                Item newItem = getItem(newBodyGroups, newItemPosition);
-                return oldItem.getChangePayload(newItem);
-            }
-        }, detectMoves);
+    /**
+     * Replace all existing body content with a list that will be diffed on a background thread,
+     * and dispatch fine-grained change notifications to the parent once the diff is calculated.
+     *
+     * @param newBodyGroups The new content of the section
+     * @param detectMoves is passed to {@link DiffUtil#calculateDiff(DiffUtil.Callback, boolean)}. Set to false if you
+     *                    don't want DiffUtil to detect moved items.
+     * @param onAsyncUpdateListener Optional callback for when the async update is complete
+     */
+    public void updateAsync(@NonNull final Collection<? extends Group> newBodyGroups, boolean detectMoves,
+                            @Nullable final OnAsyncUpdateListener onAsyncUpdateListener) {
+        final List<Group> newBodyGroupsSnapshot = new ArrayList<Group>(newBodyGroups);
+        final PendingDiff pendingDiff = DiffEngine.pending(GroupSnapshot.of(children),
+                GroupSnapshot.of(newBodyGroupsSnapshot), diffStrategy, detectMoves, bulkUpdateThreshold);
+        getAsyncDiffUtil().calculateDiff(newBodyGroupsSnapshot, pendingDiff, onAsyncUpdateListener);
+    }
 
-        super.removeAll(children);
-        children.clear();
-        children.addAll(newBodyGroups);
-        super.addAll(newBodyGroups);
-        
-        diffResult.dispatchUpdatesTo(listUpdateCallback);
-        if (newBodyItemCount == 0 || oldBodyItemCount == 0) {
-            refreshEmptyState();
+    /**
+     * Set the executors used by {@link #updateAsync(Collection)}.  By default diffs are calculated
+     * on a single background thread shared by all sections and adapters, and dispatched using the
+     * main looper.
+     *
+     * @param backgroundExecutor Executor on which diffs are calculated
+     * @param mainThreadExecutor Executor on which diff results are applied to this section.  It
+     *                           must run tasks on the main thread, in the order they are submitted.
+     */
+    public void setAsyncDiffExecutors(@NonNull Executor backgroundExecutor, @NonNull Executor mainThreadExecutor) {
+        getAsyncDiffUtil().setExecutors(backgroundExecutor, mainThreadExecutor);
+    }
+
+    @NonNull
+    private AsyncDiffUtil getAsyncDiffUtil() {
+        if (asyncDiffUtil == null) {
+            asyncDiffUtil = new AsyncDiffUtil(new AsyncDiffUtil.Callback() {
+                @Override
+                public void onDispatchAsyncResult(@NonNull Collection<? extends Group> newGroups,
+                                                  @NonNull ListDiff diffResult) {
+                    applyUpdate(newGroups, diffResult);
+                    refreshEmptyState();
+                    reportUpdatePath(diffResult);
+                }
+            });
         }
+        return asyncDiffUtil;
     }
 
     /**
      * Overloaded version of update method in which you can pass your own DiffUtil.DiffResult
+     *
+     * @see GroupAdapter#createDiffCallback(Collection, Collection)
      * @param newBodyGroups The new content of the section
      * @param diffResult
      */
     public void update(@NonNull final Collection<? extends Group> newBodyGroups, DiffUtil.DiffResult diffResult) {
+        final ListDiff listDiff = DiffEngine.wrap(diffResult);
+        applyUpdate(newBodyGroups, listDiff);
+        refreshEmptyState();
+        reportUpdatePath(listDiff);
+    }
+
+    private void applyUpdate(@NonNull final Collection<? extends Group> newBodyGroups, @NonNull ListDiff diffResult) {
         super.removeAll(children);
         children.clear();
         children.addAll(newBodyGroups);
         super.addAll(newBodyGroups);
 
+        // Remove the placeholder before the new items arrive, so that they're inserted in its place
+        if (!isEmpty()) hidePlaceholder();
         diffResult.dispatchUpdatesTo(listUpdateCallback);
-        refreshEmptyState();
+    }
+
+    /**
+     * Set the algorithm used to diff the old and new body content in {@link #update(Collection)}.
+     * Defaults to {@link DiffStrategy#MYERS}.
+     *
+     * @param diffStrategy The diff strategy to use for subsequent updates
+     */
+    public void setDiffStrategy(@NonNull DiffStrategy diffStrategy) {
+        this.diffStrategy = diffStrategy;
+    }
+
+    /**
+     * Skip the diff in {@link #update(Collection)} and {@link #updateAsync(Collection)} when most
+     * of the body changed, and replace the changed range with one removal and one insertion.
+     *
+     * @see GroupAdapter#setBulkUpdateThreshold(float)
+     * @param threshold The estimated fraction of changed items, between 0 and 1, above which the
+     *                  diff is skipped.  Defaults to 1, which always diffs.
+     */
+    public void setBulkUpdateThreshold(float threshold) {
+        this.bulkUpdateThreshold = threshold;
+    }
+
+    /**
+     * @param listener Told whether each update was diffed or replaced in bulk, once it has been
+     *                 dispatched, or null to stop listening
+     */
+    public void setOnUpdatePathListener(@Nullable OnUpdatePathListener listener) {
+        this.onUpdatePathListener = listener;
+    }
+
+    private void reportUpdatePath(@NonNull ListDiff diffResult) {
+        if (onUpdatePathListener != null) {
+            onUpdatePathListener.onUpdatePath(DiffEngine.isBulk(diffResult) ? UpdatePath.BULK : UpdatePath.DIFF);
+        }
     }
 
     private ListUpdateCallback listUpdateCallback = new ListUpdateCallback() {
         @Override
         public void onInserted(int position, int count) {
-            notifyItemRangeInserted(getHeaderItemCount() + position, count);
+            notifyItemRangeInserted(getBodyItemStart() + position, count);
         }
 
         @Override
         public void onRemoved(int position, int count) {
-            notifyItemRangeRemoved(getHeaderItemCount() + position, count);
+            notifyItemRangeRemoved(getBodyItemStart() + position, count);
         }
 
         @Override
         public void onMoved(int fromPosition, int toPosition) {
-            final int headerItemCount = getHeaderItemCount();
-            notifyItemMoved(headerItemCount + fromPosition, headerItemCount + toPosition);
+            final int bodyItemStart = getBodyItemStart();
+            notifyItemMoved(bodyItemStart + fromPosition, bodyItemStart + toPosition);
         }
 
         @Override
         public void onChanged(int position, int count, Object payload) {
-            notifyItemRangeChanged(getHeaderItemCount() + position, count, payload);
+            notifyItemRangeChanged(getBodyItemStart() + position, count, payload);
         }
     };
 
-    private static Item getItem(Collection<? extends Group> groups, int position) {
-        int previousPosition = 0;
-
-        for (Group group : groups) {
-            int size = group.getItemCount();
-            if (size + previousPosition > position) {
-                return group.getItem(position - previousPosition);
-            }
-            previousPosition += size;
-        }
-
-        throw new IndexOutOfBoundsException("Wanted item at " + position + " but there are only "
-                + previousPosition + " items");
-    }
-
     /**
      * Optional. Set a placeholder for when the section's body is empty.
      * <p>
@@ -306,7 +455,7 @@ public class Section extends NestedGroup {
      * @return
      */
     protected boolean isEmpty() {
-        return children.isEmpty() || getItemCount(children) == 0;
+        return children.isEmpty() || getChildrenItemCount() == 0;
     }
 
     private void hideDecorations() {
@@ -317,7 +466,13 @@ public class Section extends NestedGroup {
         notifyItemRangeRemoved(0, count);
     }
 
+    /**
+     * Show or hide the placeholder, header and footer to match whether the body is empty.  Deferred
+     * to the end of the batch while one is open, so a batch which empties and refills the body
+     * doesn't flash the placeholder.
+     */
     protected void refreshEmptyState() {
+        if (isBatching()) return;
         boolean isEmpty = isEmpty();
         if (isEmpty) {
             if (hideWhenEmpty) {
@@ -332,6 +487,11 @@ public class Section extends NestedGroup {
         }
     }
 
+    @Override
+    protected void onBatchCommit() {
+        refreshEmptyState();
+    }
+
     private void showHeadersAndFooters() {
         if (isHeaderAndFooterVisible) return;
         isHeaderAndFooterVisible = true;
@@ -339,8 +499,36 @@ public class Section extends NestedGroup {
         notifyItemRangeInserted(getItemCountWithoutFooter(), getFooterItemCount());
     }
 
+    /**
+     * The placeholder is normally only visible while the children have no items, but they may
+     * have some until the empty state is refreshed, such as during a batch.
+     */
     private int getBodyItemCount() {
-        return isPlaceholderVisible ? getPlaceholderItemCount() : getItemCount(children);
+        return getPlaceholderItemCount() + getChildrenItemCount();
+    }
+
+    private int getBodyItemStart() {
+        return getHeaderItemCount() + getPlaceholderItemCount();
+    }
+
+    private int getChildrenItemCount() {
+        if (isConsistencyChecksEnabled()) {
+            final int actualItemCount = getItemCount(children);
+            if (actualItemCount != children.getTotalItemCount()) {
+                throw new IllegalStateException("Cached item count " + children.getTotalItemCount()
+                        + " of the children of " + this + " does not match their actual item count "
+                        + actualItemCount + ". A child group changed size without notifying its observers.");
+            }
+        }
+        return children.getTotalItemCount();
+    }
+
+    private void onChildItemCountChanged(@NonNull Group group, int delta) {
+        if (group == header || group == footer || group == placeholder) return;
+        if (!children.onItemCountChanged(group, delta)) {
+            // The notification doesn't come from one of our groups, so we can't tell which child changed
+            children.refreshItemCounts();
+        }
     }
 
     private int getItemCountWithoutFooter() {
@@ -367,6 +555,47 @@ public class Section extends NestedGroup {
         return isPlaceholderVisible ? 1 : 0;
     }
 
+    /**
+     * Uses the indexed children rather than the offsets cached by NestedGroup, which would have to
+     * be rebuilt after every change to the children.
+     */
+    @Override
+    int getItemCountBeforeVisibleGroup(@NonNull Group group) {
+        if (getPosition(group) < 0) return -1;
+        return getItemCountBeforeGroup(group);
+    }
+
+    @Override
+    protected int getItemCountBeforeGroup(@NonNull Group group) {
+        if (isHeaderShown() && group == header) return 0;
+        final int headerItemCount = getHeaderItemCount();
+        if (isPlaceholderShown() && group == placeholder) return headerItemCount;
+        final int bodyStart = getBodyItemStart();
+        final int index = children.indexOfGroup(group);
+        if (index >= 0) return bodyStart + children.getItemCountBefore(index);
+        if (isFooterShown() && group == footer) return bodyStart + getChildrenItemCount();
+        return 0;
+    }
+
+    @Override
+    @NonNull
+    public Item getItem(int position) {
+        final int headerItemCount = getHeaderItemCount();
+        if (position < headerItemCount) return header.getItem(position);
+        position -= headerItemCount;
+        final int placeholderItemCount = getPlaceholderItemCount();
+        if (position < placeholderItemCount) return placeholder.getItem(position);
+        position -= placeholderItemCount;
+        if (position < getChildrenItemCount()) {
+            final int index = children.indexOfItemPosition(position);
+            return children.get(index).getItem(position - children.getItemCountBefore(index));
+        }
+        position -= getChildrenItemCount();
+        if (position < getFooterItemCount()) return footer.getItem(position);
+        throw new IndexOutOfBoundsException("Wanted item at " + (position + getItemCountWithoutFooter())
+                + " but there are only " + getItemCount() + " items");
+    }
+
     @Override
     @NonNull
     public Group getGroup(int position) {
@@ -403,7 +632,7 @@ public class Section extends NestedGroup {
         }
         count += getPlaceholderCount();
 
-        int index = children.indexOf(group);
+        int index = children.indexOfGroup(group);
         if (index >= 0) return count + index;
         count += children.size();
 
@@ -503,24 +732,28 @@ public class Section extends NestedGroup {
 
     @Override
     public void onItemInserted(@NonNull Group group, int position) {
+        onChildItemCountChanged(group, 1);
         super.onItemInserted(group, position);
         refreshEmptyState();
     }
 
     @Override
     public void onItemRemoved(@NonNull Group group, int position) {
+        onChildItemCountChanged(group, -1);
         super.onItemRemoved(group, position);
         refreshEmptyState();
     }
 
     @Override
     public void onItemRangeInserted(@NonNull Group group, int positionStart, int itemCount) {
+        onChildItemCountChanged(group, itemCount);
         super.onItemRangeInserted(group, positionStart, itemCount);
         refreshEmptyState();
     }
 
     @Override
     public void onItemRangeRemoved(@NonNull Group group, int positionStart, int itemCount) {
+        onChildItemCountChanged(group, -itemCount);
         super.onItemRangeRemoved(group, positionStart, itemCount);
         refreshEmptyState();
     }
@@ -0,0 +1,352 @@
+package com.xwray.groupie;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.BatchingListUpdateCallback;
+import androidx.recyclerview.widget.ListUpdateCallback;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A diff which matches old and new items by their view type and id, in the manner of Heckel's
+ * algorithm, instead of searching for the longest common subsequence like DiffUtil.
+ * <p>
+ * Matching is linear in the size of both lists.  Of the matched items, those on the longest
+ * increasing subsequence of old positions stay put and the rest are moved, so a full re-sort
+ * costs O(N log N) rather than DiffUtil's O(N^2).
+ * <p>
+ * Only usable when every item uses the default {@link Item#isSameAs(Item)}, so that the view
+ * type and id identify an item, and when no key appears twice in the old list or matches twice
+ * in the new list.  {@link #calculate(DiffCallback, boolean)} returns null otherwise.
+ */
+final class UniqueKeyDiff implements ListDiff {
+
+    private static final int INSERT = 0;
+    private static final int REMOVE = 1;
+    private static final int MOVE = 2;
+    private static final int CHANGE = 3;
+
+    /**
+     * Operations as (type, position, move target) triples, in dispatch order.
+     */
+    private int[] operations = new int[3 * 16];
+    private int operationCount = 0;
+
+    /**
+     * The payload of each CHANGE operation, in order.
+     */
+    private final List<Object> payloads = new ArrayList<>();
+
+    private UniqueKeyDiff() {
+    }
+
+    /**
+     * @return The diff between the callback's old and new items, or null if their keys can't be
+     * used to match them
+     */
+    @Nullable
+    static UniqueKeyDiff calculate(@NonNull DiffCallback callback, boolean detectMoves) {
+        final Item[] oldItems = callback.getOldItems();
+        final Item[] newItems = callback.getNewItems();
+        if (anyOverridesIsSameAs(oldItems) || anyOverridesIsSameAs(newItems)) return null;
+
+        final KeyIndex oldIndex = callback.getOldKeyIndex();
+        if (oldIndex == null) return null;
+        final long[] newIds = callback.getNewIds();
+        final int[] newViewTypes = callback.getNewViewTypes();
+
+        final int[] oldToNew = new int[oldItems.length];
+        final int[] newToOld = new int[newItems.length];
+        Arrays.fill(oldToNew, -1);
+        int matchedCount = 0;
+        for (int j = 0; j < newItems.length; j++) {
+            final int i = oldIndex.get(newIds[j], newViewTypes[j]);
+            newToOld[j] = i;
+            if (i >= 0) {
+                if (oldToNew[i] >= 0) return null;
+                oldToNew[i] = j;
+                matchedCount++;
+            }
+        }
+
+        final UniqueKeyDiff diff = new UniqueKeyDiff();
+        diff.calculateOperations(callback, oldToNew, newToOld, matchedCount, detectMoves);
+        return diff;
+    }
+
+    private void calculateOperations(@NonNull DiffCallback callback, @NonNull int[] oldToNew,
+                                     @NonNull int[] newToOld, int matchedCount, boolean detectMoves) {
+        // Rank of each matched old item among the matched old items, in new order
+        final int[] oldRank = new int[oldToNew.length];
+        int rank = 0;
+        for (int i = 0; i < oldToNew.length; i++) {
+            if (oldToNew[i] >= 0) oldRank[i] = rank++;
+        }
+        final int[] ranksInNewOrder = new int[matchedCount];
+        int t = 0;
+        for (int j = 0; j < newToOld.length; j++) {
+            if (newToOld[j] >= 0) ranksInNewOrder[t++] = oldRank[newToOld[j]];
+        }
+        final boolean[] isAnchor = longestIncreasingSubsequence(ranksInNewOrder);
+
+        if (!detectMoves) {
+            // Like DiffUtil, report moved items as removed and re-inserted instead
+            for (int j = 0, k = 0; j < newToOld.length; j++) {
+                if (newToOld[j] < 0) continue;
+                if (!isAnchor[k++]) {
+                    oldToNew[newToOld[j]] = -1;
+                    newToOld[j] = -1;
+                }
+            }
+        }
+
+        // Removals, back to front so that the positions of the remaining items don't change
+        for (int i = oldToNew.length - 1; i >= 0; i--) {
+            if (oldToNew[i] < 0) addOperation(REMOVE, i, 0);
+        }
+
+        if (detectMoves) {
+            addMoves(ranksInNewOrder, isAnchor);
+        }
+
+        // Insertions, front to back so that each position is final when inserted
+        for (int j = 0; j < newToOld.length; j++) {
+            if (newToOld[j] < 0) addOperation(INSERT, j, 0);
+        }
+
+        for (int j = 0; j < newToOld.length; j++) {
+            final int i = newToOld[j];
+            if (i >= 0 && !callback.areContentsTheSame(i, j)) {
+                addOperation(CHANGE, j, 0);
+                payloads.add(callback.getChangePayload(i, j));
+            }
+        }
+    }
+
+    /**
+     * Move every matched item which isn't an anchor to just after the item before it in the new
+     * list.
+     * <p>
+     * The positions are tracked with a Fenwick tree over slots: each matched item has a slot in
+     * old order, and each anchor is followed by slots for the items which end up after it, so
+     * the occupied slots are always in the current order of the list.
+     */
+    private void addMoves(@NonNull int[] ranksInNewOrder, @NonNull boolean[] isAnchor) {
+        if (allAnchors(isAnchor)) return;
+        final int count = ranksInNewOrder.length;
+        // Number of items to be placed after each anchor (by rank), or before all of them
+        final int[] followerCount = new int[count];
+        int leadingCount = 0;
+        int owner = -1;
+        for (int t = 0; t < count; t++) {
+            if (isAnchor[t]) {
+                owner = ranksInNewOrder[t];
+            } else if (owner < 0) {
+                leadingCount++;
+            } else {
+                followerCount[owner]++;
+            }
+        }
+
+        final int[] oldSlot = new int[count];
+        int slot = leadingCount;
+        for (int r = 0; r < count; r++) {
+            oldSlot[r] = slot;
+            slot += 1 + followerCount[r];
+        }
+        final Fenwick slots = new Fenwick(slot, oldSlot);
+
+        int nextSlot = 0;
+        for (int t = 0; t < count; t++) {
+            final int r = ranksInNewOrder[t];
+            if (isAnchor[t]) {
+                nextSlot = oldSlot[r] + 1;
+                continue;
+            }
+            final int from = slots.countBefore(oldSlot[r]);
+            slots.add(oldSlot[r], -1);
+            final int to = slots.countBefore(nextSlot);
+            slots.add(nextSlot, 1);
+            nextSlot++;
+            if (from != to) addOperation(MOVE, from, to);
+        }
+    }
+
+    private static boolean allAnchors(@NonNull boolean[] isAnchor) {
+        for (boolean anchor : isAnchor) {
+            if (!anchor) return false;
+        }
+        return true;
+    }
+
+    private void addOperation(int type, int position, int toPosition) {
+        if (operationCount + 3 > operations.length) {
+            operations = Arrays.copyOf(operations, operations.length * 2);
+        }
+        operations[operationCount++] = type;
+        operations[operationCount++] = position;
+        operations[operationCount++] = toPosition;
+    }
+
+    @Override
+    public void dispatchUpdatesTo(@NonNull ListUpdateCallback updateCallback) {
+        final BatchingListUpdateCallback batchingCallback = updateCallback instanceof BatchingListUpdateCallback
+                ? (BatchingListUpdateCallback) updateCallback
+                : new BatchingListUpdateCallback(updateCallback);
+        int payloadIndex = 0;
+        for (int k = 0; k < operationCount; k += 3) {
+            final int position = operations[k + 1];
+            switch (operations[k]) {
+                case INSERT:
+                    batchingCallback.onInserted(position, 1);
+                    break;
+                case REMOVE:
+                    batchingCallback.onRemoved(position, 1);
+                    break;
+                case MOVE:
+                    batchingCallback.onMoved(position, operations[k + 2]);
+                    break;
+                case CHANGE:
+                    batchingCallback.onChanged(position, 1, payloads.get(payloadIndex++));
+                    break;
+            }
+        }
+        batchingCallback.dispatchLastEvent();
+    }
+
+    /**
+     * @return Whether each element is on a longest strictly increasing subsequence of the values
+     */
+    @NonNull
+    static boolean[] longestIncreasingSubsequence(@NonNull int[] values) {
+        final int count = values.length;
+        // tails[k] is the index of the smallest value ending an increasing subsequence of length k + 1
+        final int[] tails = new int[count];
+        final int[] previous = new int[count];
+        int length = 0;
+        for (int t = 0; t < count; t++) {
+            int low = 0;
+            int high = length;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (values[tails[mid]] < values[t]) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            previous[t] = low > 0 ? tails[low - 1] : -1;
+            tails[low] = t;
+            if (low == length) length++;
+        }
+        final boolean[] result = new boolean[count];
+        for (int t = length > 0 ? tails[length - 1] : -1; t >= 0; t = previous[t]) {
+            result[t] = true;
+        }
+        return result;
+    }
+
+    private static boolean anyOverridesIsSameAs(@NonNull Item[] items) {
+        Class<?> lastClass = null;
+        for (Item item : items) {
+            final Class<?> itemClass = item.getClass();
+            if (itemClass == lastClass) continue;
+            if (DiffCallback.overridesIsSameAs(itemClass)) return true;
+            lastClass = itemClass;
+        }
+        return false;
+    }
+
+    /**
+     * An open-addressing hash map from (view type, id) to the index of the item with that key.
+     */
+    static final class KeyIndex {
+        private final long[] ids;
+        private final int[] viewTypes;
+        // Index + 1 of the item in each slot, or 0 if the slot is empty
+        private final int[] indices;
+        private final int mask;
+
+        private KeyIndex(int capacity) {
+            ids = new long[capacity];
+            viewTypes = new int[capacity];
+            indices = new int[capacity];
+            mask = capacity - 1;
+        }
+
+        /**
+         * @return An index of the items, or null if two of them have the same key
+         */
+        @Nullable
+        static KeyIndex of(@NonNull long[] itemIds, @NonNull int[] itemViewTypes) {
+            final KeyIndex index = new KeyIndex(Math.max(2, Integer.highestOneBit(Math.max(1, itemIds.length)) << 2));
+            for (int i = 0; i < itemIds.length; i++) {
+                final long id = itemIds[i];
+                final int viewType = itemViewTypes[i];
+                int slot = slot(id, viewType) & index.mask;
+                while (index.indices[slot] != 0) {
+                    if (index.ids[slot] == id && index.viewTypes[slot] == viewType) return null;
+                    slot = (slot + 1) & index.mask;
+                }
+                index.ids[slot] = id;
+                index.viewTypes[slot] = viewType;
+                index.indices[slot] = i + 1;
+            }
+            return index;
+        }
+
+        /**
+         * @return The index of the item with the same key, or -1
+         */
+        int get(long id, int viewType) {
+            int slot = slot(id, viewType) & mask;
+            while (indices[slot] != 0) {
+                if (ids[slot] == id && viewTypes[slot] == viewType) return indices[slot] - 1;
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        private static int slot(long id, int viewType) {
+            long hash = (id ^ ((long) viewType << 32) ^ viewType) * 0x9E3779B97F4A7C15L;
+            return (int) (hash ^ (hash >>> 32));
+        }
+    }
+
+    /**
+     * A Fenwick (binary indexed) tree counting the occupied slots.
+     */
+    private static final class Fenwick {
+        private final int[] tree;
+
+        Fenwick(int size, @NonNull int[] occupied) {
+            tree = new int[size + 1];
+            for (int slot : occupied) {
+                tree[slot + 1]++;
+            }
+            for (int i = 1; i <= size; i++) {
+                final int parent = i + (i & -i);
+                if (parent <= size) tree[parent] += tree[i];
+            }
+        }
+
+        void add(int slot, int delta) {
+            for (int i = slot + 1; i < tree.length; i += i & -i) {
+                tree[i] += delta;
+            }
+        }
+
+        /**
+         * @return The number of occupied slots before the slot
+         */
+        int countBefore(int slot) {
+            int count = 0;
+            for (int i = slot; i > 0; i -= i & -i) {
+                count += tree[i];
+            }
+            return count;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.xwray.groupie;
+
+/**
+ * How an update of a {@link GroupAdapter} or {@link Section} was turned into change notifications.
+ *
+ * @see OnUpdatePathListener
+ */
+public enum UpdatePath {
+
+    /**
+     * The old and new items were diffed, and the fine-grained changes between them dispatched.
+     */
+    DIFF,
+
+    /**
+     * Most of the items were estimated to have changed, so the diff was skipped and the changed
+     * range was dispatched as one removal followed by one insertion.
+     */
+    BULK
+}
@@ -48,7 +48,7 @@ public class UpdatingGroup extends NestedGroup {
     private List<Item> items = new ArrayList<>();
 
     public void update(@NonNull List<? extends Item> newItems) {
-        DiffUtil.DiffResult diffResult = DiffUtil.calculateDiff(new UpdatingCallback(newItems));
+        DiffUtil.DiffResult diffResult = DiffUtil.calculateDiff(new UpdatingCallback(items, newItems));
         super.removeAll(items);
         items.clear();
         super.addAll(newItems);
@@ -76,28 +76,33 @@ public class UpdatingGroup extends NestedGroup {
         }
     }
 
-    private class UpdatingCallback extends DiffUtil.Callback {
+    /**
+     * Compares snapshots of the old and new items taken when the callback is created.
+     */
+    private static class UpdatingCallback extends DiffUtil.Callback {
 
-        private List<? extends Item> newList;
+        private final Item[] oldItems;
+        private final Item[] newItems;
 
-        UpdatingCallback(List<? extends Item> newList) {
-            this.newList = newList;
+        UpdatingCallback(List<? extends Item> oldList, List<? extends Item> newList) {
+            this.oldItems = oldList.toArray(new Item[0]);
+            this.newItems = newList.toArray(new Item[0]);
         }
 
         @Override
         public int getOldListSize() {
-            return items.size();
+            return oldItems.length;
         }
 
         @Override
         public int getNewListSize() {
-            return newList.size();
+            return newItems.length;
         }
 
         @Override
         public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
-            Item oldItem = items.get(oldItemPosition);
-            Item newItem = newList.get(newItemPosition);
+            Item oldItem = oldItems[oldItemPosition];
+            Item newItem = newItems[newItemPosition];
             if (oldItem.getViewType() != newItem.getViewType()) {
                 return false;
             }
@@ -106,10 +111,9 @@ public class UpdatingGroup extends NestedGroup {
 
         @Override
         public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
-            Item oldItem = items.get(oldItemPosition);
-            Item newItem = newList.get(newItemPosition);
+            Item oldItem = oldItems[oldItemPosition];
+            Item newItem = newItems[newItemPosition];
             return oldItem.equals(newItem);
         }
     }
 }
-
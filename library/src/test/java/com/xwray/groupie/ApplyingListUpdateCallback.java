@@ -0,0 +1,45 @@
+package com.xwray.groupie;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.ListUpdateCallback;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Applies the dispatched operations to a copy of the old list, filling inserted positions
+ * with null.
+ */
+class ApplyingListUpdateCallback implements ListUpdateCallback {
+    final List<Item> items;
+    final List<Integer> changedPositions = new ArrayList<>();
+    int moveCount = 0;
+
+    ApplyingListUpdateCallback(@NonNull List<Item> oldItems) {
+        items = new ArrayList<>(oldItems);
+    }
+
+    @Override
+    public void onInserted(int position, int count) {
+        items.addAll(position, Collections.<Item>nCopies(count, null));
+    }
+
+    @Override
+    public void onRemoved(int position, int count) {
+        items.subList(position, position + count).clear();
+    }
+
+    @Override
+    public void onMoved(int fromPosition, int toPosition) {
+        items.add(toPosition, items.remove(fromPosition));
+        moveCount++;
+    }
+
+    @Override
+    public void onChanged(int position, int count, Object payload) {
+        for (int i = 0; i < count; i++) {
+            changedPositions.add(position + i);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.xwray.groupie;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.ListUpdateCallback;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+@RunWith(MockitoJUnitRunner.class)
+public class AsyncDiffUtilTest {
+
+    @Mock
+    AsyncDiffUtil.Callback callback;
+
+    @Mock
+    OnAsyncUpdateListener onAsyncUpdateListener;
+
+    @Mock
+    ListUpdateCallback listUpdateCallback;
+
+    private final Executor directExecutor = new Executor() {
+        @Override
+        public void execute(@NonNull Runnable command) {
+            command.run();
+        }
+    };
+
+    private final Queue<Runnable> mainThreadTasks = new ArrayDeque<>();
+
+    private final Executor queueingExecutor = new Executor() {
+        @Override
+        public void execute(@NonNull Runnable command) {
+            mainThreadTasks.add(command);
+        }
+    };
+
+    private AsyncDiffUtil asyncDiffUtil;
+
+    @Before
+    public void setUp() {
+        asyncDiffUtil = new AsyncDiffUtil(callback);
+    }
+
+    @Test
+    public void resultIsDispatchedOnTheMainThreadExecutor() {
+        asyncDiffUtil.setExecutors(directExecutor, queueingExecutor);
+        List<Group> newGroups = Collections.<Group>singletonList(new DummyItem());
+
+        asyncDiffUtil.calculateDiff(newGroups, diffFromEmpty(newGroups), onAsyncUpdateListener);
+        verify(callback, never()).onDispatchAsyncResult(eq(newGroups), any(ListDiff.class));
+
+        mainThreadTasks.remove().run();
+        ArgumentCaptor<ListDiff> diffResult = ArgumentCaptor.forClass(ListDiff.class);
+        InOrder inOrder = inOrder(callback, onAsyncUpdateListener);
+        inOrder.verify(callback).onDispatchAsyncResult(eq(newGroups), diffResult.capture());
+        inOrder.verify(onAsyncUpdateListener).onUpdateComplete();
+
+        diffResult.getValue().dispatchUpdatesTo(listUpdateCallback);
+        verify(listUpdateCallback).onInserted(0, 1);
+    }
+
+    @Test
+    public void supersededResultIsNotDispatched() {
+        asyncDiffUtil.setExecutors(directExecutor, queueingExecutor);
+        List<Group> firstGroups = Collections.<Group>singletonList(new DummyItem());
+        List<Group> secondGroups = Collections.<Group>singletonList(new DummyItem());
+
+        asyncDiffUtil.calculateDiff(firstGroups, diffFromEmpty(firstGroups), null);
+        asyncDiffUtil.calculateDiff(secondGroups, diffFromEmpty(secondGroups), onAsyncUpdateListener);
+        while (!mainThreadTasks.isEmpty()) {
+            mainThreadTasks.remove().run();
+        }
+
+        verify(callback, never()).onDispatchAsyncResult(eq(firstGroups), any(ListDiff.class));
+        verify(callback).onDispatchAsyncResult(eq(secondGroups), any(ListDiff.class));
+        verify(onAsyncUpdateListener).onUpdateComplete();
+    }
+
+    @Test
+    public void supersededDiffIsNotCalculated() {
+        final Queue<Runnable> backgroundTasks = new ArrayDeque<>();
+        asyncDiffUtil.setExecutors(new Executor() {
+            @Override
+            public void execute(@NonNull Runnable command) {
+                backgroundTasks.add(command);
+            }
+        }, queueingExecutor);
+        List<Group> firstGroups = Collections.<Group>singletonList(new DummyItem());
+        List<Group> secondGroups = Collections.<Group>singletonList(new DummyItem());
+
+        asyncDiffUtil.calculateDiff(firstGroups, diffFromEmpty(firstGroups), null);
+        asyncDiffUtil.calculateDiff(secondGroups, diffFromEmpty(secondGroups), null);
+
+        backgroundTasks.remove().run();
+        assertTrue(mainThreadTasks.isEmpty());
+        backgroundTasks.remove().run();
+        assertEquals(1, mainThreadTasks.size());
+    }
+
+    @Test(expected = CancellationException.class)
+    public void cancelledDiffStopsEarly() {
+        List<Group> oldItems = new ArrayList<>();
+        List<Group> newItems = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            oldItems.add(new DummyItem(i));
+            newItems.add(new DummyItem(1000 + i));
+        }
+        DiffCallback diffCallback = new DiffCallback(oldItems, newItems);
+        diffCallback.setCancellationCheck(new DiffCallback.CancellationCheck() {
+            @Override
+            public boolean isCancelled() {
+                return true;
+            }
+        });
+        DiffEngine.calculateDiff(diffCallback, DiffStrategy.MYERS, true, DiffEngine.NO_BULK_UPDATE);
+    }
+
+    @Test
+    public void burstOfUpdatesIsCoalescedAfterTheQuietPeriod() throws InterruptedException {
+        final AtomicInteger submittedCount = new AtomicInteger();
+        final CountDownLatch dispatched = new CountDownLatch(1);
+        asyncDiffUtil.setExecutors(new Executor() {
+            @Override
+            public void execute(@NonNull Runnable command) {
+                submittedCount.incrementAndGet();
+                command.run();
+            }
+        }, new Executor() {
+            @Override
+            public synchronized void execute(@NonNull Runnable command) {
+                mainThreadTasks.add(command);
+                dispatched.countDown();
+            }
+        });
+        asyncDiffUtil.setQuietPeriod(200);
+
+        for (int i = 0; i < 3; i++) {
+            List<Group> groups = Collections.<Group>singletonList(new DummyItem());
+            asyncDiffUtil.calculateDiff(groups, diffFromEmpty(groups), null);
+        }
+        // Nothing is handed to the background executor while waiting
+        assertEquals(0, submittedCount.get());
+
+        assertTrue(dispatched.await(5, TimeUnit.SECONDS));
+        Thread.sleep(300);
+        assertEquals(1, submittedCount.get());
+        assertEquals(1, mainThreadTasks.size());
+    }
+
+    @NonNull
+    private static PendingDiff diffFromEmpty(@NonNull List<Group> newGroups) {
+        return DiffEngine.pending(new DiffCallback(Collections.<Group>emptyList(), newGroups), DiffStrategy.MYERS,
+                true, DiffEngine.NO_BULK_UPDATE);
+    }
+}
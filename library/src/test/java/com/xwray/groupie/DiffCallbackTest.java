@@ -0,0 +1,157 @@
+package com.xwray.groupie;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DiffCallbackTest {
+
+    @Test
+    public void flattenMatchesItemOrderOfNestedGroups() {
+        final DummyItem header = new DummyItem();
+        final DummyItem first = new DummyItem();
+        final DummyItem second = new DummyItem();
+        final DummyItem third = new DummyItem();
+        final DummyItem footer = new DummyItem();
+        final List<Item> plainItems = Arrays.<Item>asList(second, third);
+        Group plainGroup = new DummyGroup() {
+            @Override
+            public int getItemCount() {
+                return plainItems.size();
+            }
+
+            @NonNull
+            @Override
+            public Item getItem(int position) {
+                return plainItems.get(position);
+            }
+        };
+
+        Section nested = new Section(Arrays.asList(first, plainGroup));
+        Section section = new Section(header, Collections.singletonList(nested));
+        section.setFooter(footer);
+
+        Item[] items = DiffCallback.flatten(Arrays.asList(section, new Section()));
+        assertArrayEquals(new Item[]{header, first, second, third, footer}, items);
+    }
+
+    @Test
+    public void comparesSnapshotItems() {
+        ContentUpdatingItem oldItem = new ContentUpdatingItem(1, "old");
+        ContentUpdatingItem newItem = new ContentUpdatingItem(1, "new");
+        DummyItem otherItem = new DummyItem(2);
+
+        DiffCallback callback = new DiffCallback(
+                Collections.singletonList(new Section(Collections.singletonList(oldItem))),
+                Arrays.asList(newItem, otherItem));
+
+        assertEquals(1, callback.getOldListSize());
+        assertEquals(2, callback.getNewListSize());
+        assertTrue(callback.areItemsTheSame(0, 0));
+        assertFalse(callback.areContentsTheSame(0, 0));
+        assertFalse(callback.areItemsTheSame(0, 1));
+    }
+
+    @Test
+    public void contentHashesAreComparedInsteadOfEquals() {
+        HashedItem oldItem = new HashedItem(1, 10);
+        HashedItem sameHash = new HashedItem(1, 10);
+        HashedItem otherHash = new HashedItem(1, 11);
+        DummyItem unhashed = new DummyItem(1);
+
+        DiffCallback callback = new DiffCallback(Collections.singletonList(oldItem),
+                Arrays.asList(sameHash, otherHash, unhashed));
+
+        assertTrue(callback.areContentsTheSame(0, 0));
+        assertFalse(callback.areContentsTheSame(0, 1));
+        // Falls back to equals() when only one item has a hash
+        assertFalse(callback.areContentsTheSame(0, 2));
+    }
+
+    @Test
+    public void itemsAreMatchedByKeyUnlessIsSameAsIsOverridden() {
+        DummyItem oldItem = new DummyItem(1);
+        SameAsItem sameAs = new SameAsItem(1);
+
+        DiffCallback callback = new DiffCallback(Collections.singletonList(oldItem),
+                Arrays.asList(new DummyItem(1), new DummyItem(2), sameAs));
+
+        assertTrue(callback.areItemsTheSame(0, 0));
+        assertFalse(callback.areItemsTheSame(0, 1));
+        assertFalse(callback.areItemsTheSame(0, 2));
+        assertEquals(1, sameAs.isSameAsCount);
+    }
+
+    @Test
+    public void windowReusesKeysAlreadyRead() {
+        CountingItem oldItem = new CountingItem(2);
+        CountingItem newItem = new CountingItem(3);
+        DiffCallback callback = new DiffCallback(Arrays.asList(new DummyItem(1), oldItem),
+                Arrays.asList(new DummyItem(1), newItem));
+        assertTrue(callback.areItemsTheSame(0, 0));
+        assertEquals(1, oldItem.getIdCount);
+
+        DiffCallback window = callback.window(1, 2, 1, 2);
+
+        assertFalse(window.areItemsTheSame(0, 0));
+        assertEquals(3L, window.getNewIds()[0]);
+        assertEquals(1, oldItem.getIdCount);
+        assertEquals(1, newItem.getIdCount);
+    }
+
+    private static class CountingItem extends DummyItem {
+        int getIdCount = 0;
+
+        CountingItem(long id) {
+            super(id);
+        }
+
+        @Override
+        public long getId() {
+            getIdCount++;
+            return super.getId();
+        }
+    }
+
+    private static class SameAsItem extends DummyItem {
+        int isSameAsCount = 0;
+
+        SameAsItem(long id) {
+            super(id);
+        }
+
+        @Override
+        public boolean isSameAs(Item other) {
+            isSameAsCount++;
+            return false;
+        }
+    }
+
+    private static class HashedItem extends DummyItem {
+        private final long contentHash;
+
+        HashedItem(long id, long contentHash) {
+            super(id);
+            this.contentHash = contentHash;
+        }
+
+        @Override
+        public long getContentHash() {
+            return contentHash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            throw new AssertionError("equals() should not be called when both items have a content hash");
+        }
+    }
+}
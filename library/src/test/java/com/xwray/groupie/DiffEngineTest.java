@@ -0,0 +1,144 @@
+package com.xwray.groupie;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.ListUpdateCallback;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+@RunWith(MockitoJUnitRunner.class)
+public class DiffEngineTest {
+
+    @Mock
+    ListUpdateCallback listUpdateCallback;
+
+    @Test
+    public void appendedItemsAreOneInsert() {
+        List<Item> oldItems = items(0, 10);
+        List<Item> newItems = new ArrayList<>(oldItems);
+        newItems.addAll(items(10, 3));
+
+        calculate(oldItems, newItems).dispatchUpdatesTo(listUpdateCallback);
+
+        verify(listUpdateCallback).onInserted(10, 3);
+        verifyNoMoreInteractions(listUpdateCallback);
+    }
+
+    @Test
+    public void prependedItemsAreOneInsert() {
+        List<Item> oldItems = items(0, 10);
+        List<Item> newItems = items(10, 2);
+        newItems.addAll(oldItems);
+
+        calculate(oldItems, newItems).dispatchUpdatesTo(listUpdateCallback);
+
+        verify(listUpdateCallback).onInserted(0, 2);
+        verifyNoMoreInteractions(listUpdateCallback);
+    }
+
+    @Test
+    public void removedRangeIsOneRemove() {
+        List<Item> oldItems = items(0, 10);
+        List<Item> newItems = new ArrayList<>(oldItems);
+        newItems.subList(3, 7).clear();
+
+        calculate(oldItems, newItems).dispatchUpdatesTo(listUpdateCallback);
+
+        verify(listUpdateCallback).onRemoved(3, 4);
+        verifyNoMoreInteractions(listUpdateCallback);
+    }
+
+    @Test
+    public void windowBetweenUnchangedItemsIsDiffedAtItsPosition() {
+        List<Item> oldItems = items(0, 10);
+        List<Item> newItems = new ArrayList<>(oldItems);
+        newItems.set(4, new ContentUpdatingItem(4, "changed"));
+        newItems.remove(6);
+        newItems.add(5, new DummyItem(100));
+
+        for (DiffStrategy strategy : DiffStrategy.values()) {
+            ApplyingListUpdateCallback applied = new ApplyingListUpdateCallback(oldItems);
+            calculate(oldItems, newItems, strategy).dispatchUpdatesTo(applied);
+
+            assertEquals(newItems.size(), applied.items.size());
+            assertSame(oldItems.get(4), applied.items.get(4));
+            assertNull(applied.items.get(5));
+            assertEquals(oldItems.get(5), applied.items.get(6));
+            assertEquals(1, applied.changedPositions.size());
+            assertEquals(4, (int) applied.changedPositions.get(0));
+        }
+    }
+
+    @Test
+    public void mostlyReplacedListIsOneRemoveAndOneInsert() {
+        List<Item> oldItems = items(0, 200);
+        List<Item> newItems = items(1000, 200);
+        newItems.set(0, oldItems.get(0));
+        newItems.set(199, oldItems.get(199));
+
+        ListDiff diff = DiffEngine.calculateDiff(new DiffCallback(oldItems, newItems), DiffStrategy.MYERS, true, 0.5f);
+        diff.dispatchUpdatesTo(listUpdateCallback);
+
+        assertTrue(DiffEngine.isBulk(diff));
+        verify(listUpdateCallback).onRemoved(1, 198);
+        verify(listUpdateCallback).onInserted(1, 198);
+        verifyNoMoreInteractions(listUpdateCallback);
+    }
+
+    @Test
+    public void fewChangesAreDiffedDespiteTheThreshold() {
+        List<Item> oldItems = items(0, 200);
+        List<Item> newItems = new ArrayList<>(oldItems);
+        newItems.remove(100);
+        newItems.add(50, new DummyItem(1000));
+
+        ListDiff diff = DiffEngine.calculateDiff(new DiffCallback(oldItems, newItems), DiffStrategy.MYERS, true, 0.5f);
+
+        assertFalse(DiffEngine.isBulk(diff));
+    }
+
+    @Test
+    public void reversedListCountsAsMovedItems() {
+        List<Item> oldItems = items(0, 200);
+        List<Item> newItems = new ArrayList<>(oldItems);
+        Collections.reverse(newItems);
+
+        assertTrue(DiffEngine.estimateChangedFraction(new DiffCallback(oldItems, newItems), true) > 0.9f);
+        assertEquals(0f, DiffEngine.estimateChangedFraction(new DiffCallback(oldItems, newItems), false), 0f);
+    }
+
+    @NonNull
+    private static ListDiff calculate(@NonNull List<Item> oldItems, @NonNull List<Item> newItems) {
+        return calculate(oldItems, newItems, DiffStrategy.MYERS);
+    }
+
+    @NonNull
+    private static ListDiff calculate(@NonNull List<Item> oldItems, @NonNull List<Item> newItems,
+                                      @NonNull DiffStrategy strategy) {
+        return DiffEngine.calculateDiff(new DiffCallback(oldItems, newItems), strategy, true,
+                DiffEngine.NO_BULK_UPDATE);
+    }
+
+    @NonNull
+    private static List<Item> items(int firstId, int count) {
+        List<Item> items = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            items.add(new ContentUpdatingItem(firstId + i, "a"));
+        }
+        return items;
+    }
+}
@@ -7,6 +7,8 @@ import org.mockito.Mockito;
 import org.mockito.junit.MockitoJUnitRunner;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import androidx.annotation.NonNull;
@@ -381,6 +383,38 @@ public class ExpandableGroupTest {
         assertEquals(1, expandableGroup.getGroupCount());
     }
 
+    @Test
+    public void removeAllWhenExpandedNotifiesEachRunOfRemovedGroupsOnce() {
+        ExpandableGroup expandableGroup = new ExpandableGroup(parent, true);
+        List<DummyItem> items = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            items.add(new DummyItem());
+        }
+        expandableGroup.addAll(items);
+        expandableGroup.registerGroupDataObserver(groupAdapter);
+
+        expandableGroup.removeAll(Arrays.asList(items.get(3), items.get(0), items.get(1)));
+
+        verify(groupAdapter).onItemRangeRemoved(expandableGroup, 1, 2);
+        verify(groupAdapter).onItemRangeRemoved(expandableGroup, 2, 1);
+        verifyNoMoreInteractions(groupAdapter);
+        assertEquals(3, expandableGroup.getItemCount());
+        assertEquals(items.get(4), expandableGroup.getGroup(2));
+    }
+
+    @Test
+    public void removeAllMatchesChildrenWithEquals() {
+        ExpandableGroup expandableGroup = new ExpandableGroup(parent, true);
+        expandableGroup.add(new ContentUpdatingItem(1, "a"));
+        expandableGroup.add(new ContentUpdatingItem(2, "b"));
+        expandableGroup.registerGroupDataObserver(groupAdapter);
+
+        expandableGroup.removeAll(Collections.singletonList(new ContentUpdatingItem(1, "a")));
+
+        verify(groupAdapter).onItemRangeRemoved(expandableGroup, 1, 1);
+        assertEquals(2, expandableGroup.getItemCount());
+    }
+
     @Test
     public void testExpandedChildCount() {
         ExpandableGroup expandableGroup = new ExpandableGroup(parent);
@@ -457,4 +491,49 @@ public class ExpandableGroupTest {
         expandableGroup.onToggleExpanded();
         assertEquals(0, expandableGroup.getChildCount());
     }
+
+    @Test
+    public void itemCountFollowsExpandAndCollapse() {
+        ExpandableGroup expandableGroup = new ExpandableGroup(parent);
+        expandableGroup.registerGroupDataObserver(groupAdapter);
+        Section section = new Section();
+        section.add(new DummyItem());
+        expandableGroup.add(section);
+        section.add(new DummyItem());
+        assertEquals(1, expandableGroup.getItemCount());
+
+        expandableGroup.onToggleExpanded();
+        assertEquals(3, expandableGroup.getItemCount());
+
+        section.add(new DummyItem());
+        assertEquals(4, expandableGroup.getItemCount());
+
+        expandableGroup.onToggleExpanded();
+        assertEquals(1, expandableGroup.getItemCount());
+    }
+
+    @Test
+    public void cachedChildOffsetsFollowChildChanges() {
+        ExpandableGroup expandableGroup = new ExpandableGroup(parent, true);
+        expandableGroup.registerGroupDataObserver(groupAdapter);
+        Section first = new Section();
+        first.add(new DummyItem());
+        Section second = new Section();
+        DummyItem last = new DummyItem();
+        expandableGroup.addAll(Arrays.<Group>asList(first, second, last));
+        assertEquals(2, expandableGroup.getItemCountBeforeVisibleGroup(second));
+
+        first.add(new DummyItem());
+        second.add(new DummyItem());
+        assertEquals(3, expandableGroup.getItemCountBeforeVisibleGroup(second));
+        assertEquals(4, expandableGroup.getItemCountBeforeVisibleGroup(last));
+
+        expandableGroup.remove(first);
+        assertEquals(1, expandableGroup.getItemCountBeforeVisibleGroup(second));
+        assertEquals(-1, expandableGroup.getItemCountBeforeVisibleGroup(first));
+
+        expandableGroup.onToggleExpanded();
+        assertEquals(-1, expandableGroup.getItemCountBeforeVisibleGroup(second));
+        assertEquals(0, expandableGroup.getItemCountBeforeVisibleGroup(parent));
+    }
 }
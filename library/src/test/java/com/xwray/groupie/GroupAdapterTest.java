@@ -1,5 +1,7 @@
 package com.xwray.groupie;
 
+import androidx.annotation.NonNull;
+
 import junit.framework.Assert;
 
 import org.junit.Before;
@@ -8,9 +10,16 @@ import org.junit.runner.RunWith;
 import org.mockito.runners.MockitoJUnitRunner;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 
 @RunWith(MockitoJUnitRunner.class)
 public class GroupAdapterTest {
@@ -53,4 +62,159 @@ public class GroupAdapterTest {
         Assert.assertEquals(2, groupAdapter.getItemCount());
     }
 
-}
\ No newline at end of file
+    @Test
+    public void changesWhileDetachedAreNotNotified() {
+        // Notifying would fail outside a device, so this also checks nothing is notified
+        groupAdapter.setDeferUpdatesWhileDetached(true);
+        Section section = new Section();
+        DummyItem item = new DummyItem();
+        groupAdapter.add(new DummyItem());
+        groupAdapter.add(section);
+        section.add(new DummyItem());
+        section.add(item);
+
+        Assert.assertEquals(3, groupAdapter.getItemCount());
+        Assert.assertEquals(2, groupAdapter.getAdapterPosition(item));
+    }
+
+    @Test
+    public void groupOffsetsFollowGroupsChangingSize() {
+        groupAdapter.setDeferUpdatesWhileDetached(true);
+        Section first = new Section(Collections.singletonList(new DummyItem()));
+        Section second = new Section();
+        DummyItem last = new DummyItem();
+        groupAdapter.add(first);
+        groupAdapter.add(second);
+        groupAdapter.add(last);
+        Assert.assertSame(last, groupAdapter.getItem(1));
+
+        DummyItem inserted = new DummyItem();
+        second.add(inserted);
+        first.add(new DummyItem());
+        Assert.assertSame(inserted, groupAdapter.getItem(2));
+        Assert.assertSame(last, groupAdapter.getItem(3));
+
+        first.removeAll(Collections.singletonList(first.getItem(0)));
+        Assert.assertSame(inserted, groupAdapter.getItem(1));
+        Assert.assertEquals(3, groupAdapter.getItemCount());
+    }
+
+    @Test
+    public void updateWhileDetachedReplacesGroups() {
+        groupAdapter.setDeferUpdatesWhileDetached(true);
+        groupAdapter.add(new DummyItem());
+        List<Group> newGroups = new ArrayList<>();
+        newGroups.add(new DummyItem());
+        newGroups.add(new DummyItem());
+
+        groupAdapter.update(newGroups);
+
+        Assert.assertEquals(2, groupAdapter.getItemCount());
+        Assert.assertSame(newGroups.get(1), groupAdapter.getGroup(1));
+    }
+
+    @Test
+    public void addAllAsyncAddsBuiltGroups() {
+        Executor directExecutor = new Executor() {
+            @Override
+            public void execute(@NonNull Runnable command) {
+                command.run();
+            }
+        };
+        groupAdapter.setAsyncDiffExecutors(directExecutor, directExecutor);
+        groupAdapter.setDeferUpdatesWhileDetached(true);
+        final Section section = new Section();
+        OnAsyncUpdateListener listener = mock(OnAsyncUpdateListener.class);
+
+        groupAdapter.addAllAsync(new Callable<List<Group>>() {
+            @Override
+            public List<Group> call() {
+                section.add(new DummyItem());
+                section.add(new DummyItem());
+                return Collections.<Group>singletonList(section);
+            }
+        }, listener);
+
+        Assert.assertEquals(2, groupAdapter.getItemCount());
+        verify(listener).onUpdateComplete();
+    }
+
+    @Test
+    public void addAllAsyncReportsBuilderFailureToTheListener() {
+        Executor directExecutor = new Executor() {
+            @Override
+            public void execute(@NonNull Runnable command) {
+                command.run();
+            }
+        };
+        groupAdapter.setAsyncDiffExecutors(directExecutor, directExecutor);
+        groupAdapter.setDeferUpdatesWhileDetached(true);
+        final IllegalStateException failure = new IllegalStateException();
+        OnAsyncUpdateFailedListener listener = mock(OnAsyncUpdateFailedListener.class);
+
+        groupAdapter.addAllAsync(new Callable<List<Group>>() {
+            @Override
+            public List<Group> call() {
+                throw failure;
+            }
+        }, listener);
+
+        Assert.assertEquals(0, groupAdapter.getItemCount());
+        verify(listener).onUpdateFailed(failure);
+        verify(listener, never()).onUpdateComplete();
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void addAllAsyncRethrowsBuilderFailureOnTheMainThread() {
+        Executor directExecutor = new Executor() {
+            @Override
+            public void execute(@NonNull Runnable command) {
+                command.run();
+            }
+        };
+        groupAdapter.setAsyncDiffExecutors(directExecutor, directExecutor);
+        groupAdapter.setDeferUpdatesWhileDetached(true);
+
+        groupAdapter.addAllAsync(new Callable<List<Group>>() {
+            @Override
+            public List<Group> call() {
+                throw new IllegalStateException();
+            }
+        }, mock(OnAsyncUpdateListener.class));
+    }
+
+    @Test
+    public void parallelDiffOnTheAsyncDiffExecutorFallsBackToSequential() {
+        final List<Runnable> mainThreadTasks = new ArrayList<>();
+        final int[] executedCount = {0};
+        Executor backgroundExecutor = new Executor() {
+            @Override
+            public void execute(@NonNull Runnable command) {
+                executedCount[0]++;
+                command.run();
+            }
+        };
+        groupAdapter.setAsyncDiffExecutors(backgroundExecutor, new Executor() {
+            @Override
+            public void execute(@NonNull Runnable command) {
+                mainThreadTasks.add(command);
+            }
+        });
+        groupAdapter.setParallelDiffExecutor(backgroundExecutor);
+        groupAdapter.setDeferUpdatesWhileDetached(true);
+        List<Group> oldGroups = new ArrayList<>();
+        List<Group> newGroups = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            oldGroups.add(new Section(Collections.singletonList(new DummyItem(i))));
+            newGroups.add(new Section(Collections.singletonList(new DummyItem(10 + i))));
+        }
+        groupAdapter.addAll(oldGroups);
+
+        groupAdapter.updateAsync(newGroups);
+
+        // Only the diff itself ran on the executor, not a task for each pair of groups
+        Assert.assertEquals(1, executedCount[0]);
+        Assert.assertEquals(1, mainThreadTasks.size());
+    }
+
+}
@@ -0,0 +1,90 @@
+package com.xwray.groupie;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class GroupSnapshotTest {
+
+    @Test
+    public void itemsAreInAdapterOrder() {
+        DummyItem header = new DummyItem();
+        DummyItem first = new DummyItem();
+        DummyItem second = new DummyItem();
+        DummyItem third = new DummyItem();
+        Section inner = new Section(Arrays.asList(second, third));
+        Section outer = new Section(header, Arrays.<Group>asList(first, inner));
+
+        GroupSnapshot snapshot = GroupSnapshot.of(Collections.singletonList(outer));
+
+        assertEquals(4, snapshot.getItemCount());
+        assertArrayEquals(new Item[]{header, first, second, third}, snapshot.getItems());
+    }
+
+    @Test
+    public void snapshotIsNotAffectedByLaterChanges() {
+        DummyItem first = new DummyItem();
+        Section section = new Section(Collections.singletonList(first));
+        GroupSnapshot snapshot = section.getSnapshot();
+
+        section.add(new DummyItem());
+        section.remove(first);
+
+        assertArrayEquals(new Item[]{first}, snapshot.getItems());
+    }
+
+    @Test
+    public void unchangedGroupsReuseTheirSnapshot() {
+        Section unchanged = new Section(Collections.singletonList(new DummyItem()));
+        Section outer = new Section(Collections.<Group>singletonList(unchanged));
+        GroupSnapshot unchangedSnapshot = unchanged.getSnapshot();
+        GroupSnapshot outerSnapshot = outer.getSnapshot();
+
+        assertSame(outerSnapshot, outer.getSnapshot());
+        outer.add(new DummyItem());
+        assertNotSame(outerSnapshot, outer.getSnapshot());
+        assertSame(unchangedSnapshot, unchanged.getSnapshot());
+    }
+
+    @Test
+    public void changeInNestedGroupRecapturesItsAncestors() {
+        Section inner = new Section();
+        Section outer = new Section(Collections.<Group>singletonList(inner));
+        GroupSnapshot outerSnapshot = outer.getSnapshot();
+        DummyItem item = new DummyItem();
+
+        inner.add(item);
+
+        assertNotSame(outerSnapshot, outer.getSnapshot());
+        assertArrayEquals(new Item[]{item}, outer.getSnapshot().getItems());
+    }
+
+    @Test
+    public void collapsedChildrenAreNotCaptured() {
+        DummyItem child = new DummyItem();
+        ExpandableGroup group = new ExpandableGroup(new DummyExpandableItem());
+        group.add(child);
+        assertEquals(1, group.getSnapshot().getItemCount());
+
+        group.setExpanded(true);
+
+        assertEquals(2, group.getSnapshot().getItemCount());
+        assertSame(child, group.getSnapshot().getItems()[1]);
+    }
+
+    private static class DummyExpandableItem extends DummyItem implements ExpandableItem {
+
+        @Override
+        public void setExpandableGroup(@NonNull ExpandableGroup onToggleListener) {
+
+        }
+    }
+}
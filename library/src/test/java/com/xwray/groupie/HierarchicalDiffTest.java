@@ -0,0 +1,175 @@
+package com.xwray.groupie;
+
+import androidx.annotation.NonNull;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HierarchicalDiffTest {
+
+    private final Map<Group, Integer> stamps = new IdentityHashMap<>();
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    private final HierarchicalDiff.ModificationStamps modificationStamps = new HierarchicalDiff.ModificationStamps() {
+        @Override
+        public int getModificationStamp(@NonNull Group group) {
+            Integer stamp = stamps.get(group);
+            return stamp == null ? 0 : stamp;
+        }
+    };
+
+    @After
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    /**
+     * A group which fails if its items are read, to show that it isn't diffed.
+     */
+    private static class UnreadableGroup extends DummyGroup {
+        @Override
+        public int getItemCount() {
+            return 3;
+        }
+
+        @NonNull
+        @Override
+        public Item getItem(int position) {
+            fail("Items of a kept group were read");
+            return null;
+        }
+    }
+
+    @Test
+    public void randomUpdatesTurnTheOldGroupsIntoTheNewGroups() {
+        assertRandomUpdates(false);
+    }
+
+    @Test
+    public void randomParallelUpdatesTurnTheOldGroupsIntoTheNewGroups() {
+        assertRandomUpdates(true);
+    }
+
+    @Test
+    public void replacedGroupsAreDiffedInPairs() {
+        Section first = new Section(Collections.singletonList(new DummyItem(1)));
+        Section second = new Section(Collections.singletonList(new DummyItem(2)));
+        List<Group> oldGroups = Arrays.<Group>asList(first, second);
+        List<Group> newGroups = Arrays.<Group>asList(
+                new Section(Collections.singletonList(new DummyItem(2))),
+                new Section(Collections.singletonList(new DummyItem(1))));
+
+        ApplyingListUpdateCallback applied = new ApplyingListUpdateCallback(Arrays.asList(DiffCallback.flatten(oldGroups)));
+        HierarchicalDiff.create(oldGroups, newGroups, modificationStamps, DiffStrategy.MYERS, true,
+                DiffEngine.NO_BULK_UPDATE, executor)
+                .calculate()
+                .dispatchUpdatesTo(applied);
+
+        assertEquals(0, applied.moveCount);
+        assertEquals(Arrays.<Item>asList(null, null), applied.items);
+    }
+
+    private void assertRandomUpdates(boolean parallel) {
+        Random random = new Random(11);
+        for (int run = 0; run < 200; run++) {
+            List<Group> oldGroups = new ArrayList<>();
+            int oldSize = random.nextInt(8);
+            for (int i = 0; i < oldSize; i++) {
+                oldGroups.add(randomSection(random, i * 10));
+            }
+            List<Group> newGroups = new ArrayList<>();
+            for (Group group : oldGroups) {
+                int choice = random.nextInt(4);
+                if (choice == 0) continue;
+                newGroups.add(choice == 1 ? randomSection(random, (int) ((Section) group).getItem(0).getId()) : group);
+            }
+            if (random.nextBoolean()) Collections.shuffle(newGroups, random);
+
+            HierarchicalDiff diff = HierarchicalDiff.create(oldGroups, newGroups, modificationStamps,
+                    DiffStrategy.MYERS, random.nextBoolean(), DiffEngine.NO_BULK_UPDATE,
+                    parallel ? executor : null);
+            assertNotNull(diff);
+            ApplyingListUpdateCallback applied = new ApplyingListUpdateCallback(Arrays.asList(DiffCallback.flatten(oldGroups)));
+            diff.calculate().dispatchUpdatesTo(applied);
+
+            Item[] newItems = DiffCallback.flatten(newGroups);
+            assertEquals(newItems.length, applied.items.size());
+            for (int j = 0; j < newItems.length; j++) {
+                Item item = applied.items.get(j);
+                assertTrue(item == null || newItems[j].isSameAs(item));
+            }
+        }
+    }
+
+    @Test
+    public void keptGroupsAreNotDiffed() {
+        Group kept = new UnreadableGroup();
+        Item removed = new DummyItem(1);
+        Item inserted = new DummyItem(2);
+        List<Group> oldGroups = Arrays.<Group>asList(removed, kept);
+        List<Group> newGroups = Arrays.<Group>asList(kept, inserted);
+
+        ApplyingListUpdateCallback applied = new ApplyingListUpdateCallback(
+                Arrays.<Item>asList(removed, null, null, null));
+        HierarchicalDiff.create(oldGroups, newGroups, modificationStamps, DiffStrategy.MYERS, true,
+                DiffEngine.NO_BULK_UPDATE, null)
+                .calculate()
+                .dispatchUpdatesTo(applied);
+
+        assertEquals(Arrays.<Item>asList(null, null, null, null), applied.items);
+    }
+
+    @Test
+    public void gapWhoseGroupChangedAfterCapturingIsReplacedWholesale() {
+        Section changed = new Section(Arrays.asList(new DummyItem(1), new DummyItem(2)));
+        Section kept = new Section(Collections.singletonList(new DummyItem(3)));
+        Section replacement = new Section(Arrays.asList(new DummyItem(1), new DummyItem(2)));
+        HierarchicalDiff diff = HierarchicalDiff.create(Arrays.<Group>asList(kept, changed),
+                Arrays.<Group>asList(kept, replacement), modificationStamps, DiffStrategy.MYERS, true,
+                DiffEngine.NO_BULK_UPDATE, null);
+        diff.calculate();
+
+        changed.add(new DummyItem(4));
+        stamps.put(changed, 1);
+
+        ApplyingListUpdateCallback applied = new ApplyingListUpdateCallback(Arrays.asList(DiffCallback.flatten(
+                Arrays.<Group>asList(kept, changed))));
+        diff.dispatchUpdatesTo(applied);
+        assertEquals(Arrays.asList(kept.getItem(0), null, null), applied.items);
+    }
+
+    @Test
+    public void repeatedGroupFallsBack() {
+        Group group = new DummyItem();
+        assertNull(HierarchicalDiff.create(Arrays.asList(group, group), Collections.<Group>emptyList(),
+                modificationStamps, DiffStrategy.MYERS, true, DiffEngine.NO_BULK_UPDATE, null));
+    }
+
+    @NonNull
+    private static Section randomSection(@NonNull Random random, int firstId) {
+        List<Item> items = new ArrayList<>();
+        items.add(new DummyItem(firstId));
+        int size = random.nextInt(5);
+        for (int i = 1; i <= size; i++) {
+            if (random.nextBoolean()) items.add(new DummyItem(firstId + i));
+        }
+        return new Section(items);
+    }
+}
@@ -0,0 +1,106 @@
+package com.xwray.groupie;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class IndexedGroupListTest {
+
+    private static class SizedGroup extends DummyGroup {
+        int itemCount;
+
+        SizedGroup(int itemCount) {
+            this.itemCount = itemCount;
+        }
+
+        @Override
+        public int getItemCount() {
+            return itemCount;
+        }
+    }
+
+    @Test
+    public void matchesArrayListUnderRandomEdits() {
+        Random random = new Random(42);
+        IndexedGroupList list = new IndexedGroupList();
+        List<SizedGroup> expected = new ArrayList<>();
+
+        for (int i = 0; i < 2000; i++) {
+            int operation = random.nextInt(10);
+            if (operation < 4 || expected.isEmpty()) {
+                int index = random.nextInt(expected.size() + 1);
+                SizedGroup group = new SizedGroup(random.nextInt(4));
+                list.add(index, group);
+                expected.add(index, group);
+            } else if (operation < 5) {
+                int index = random.nextInt(expected.size() + 1);
+                List<SizedGroup> groups = Arrays.asList(new SizedGroup(random.nextInt(3)), new SizedGroup(2));
+                list.addAll(index, groups);
+                expected.addAll(index, groups);
+            } else if (operation < 8) {
+                int index = random.nextInt(expected.size());
+                assertSame(expected.remove(index), list.remove(index));
+            } else {
+                SizedGroup group = expected.get(random.nextInt(expected.size()));
+                int delta = random.nextInt(3) - group.itemCount / 2;
+                group.itemCount += delta;
+                list.onItemCountChanged(group, delta);
+            }
+            assertMatches(expected, list);
+        }
+    }
+
+    @Test
+    public void duplicateGroupsResolveToTheFirstOccurrence() {
+        SizedGroup duplicate = new SizedGroup(1);
+        IndexedGroupList list = new IndexedGroupList();
+        list.addAll(Arrays.asList(new SizedGroup(1), duplicate, new SizedGroup(1), duplicate));
+        assertEquals(1, list.indexOfGroup(duplicate));
+
+        list.remove(1);
+        assertEquals(2, list.indexOfGroup(duplicate));
+
+        list.remove(2);
+        assertEquals(-1, list.indexOfGroup(duplicate));
+    }
+
+    @Test
+    public void refreshItemCountsRereadsEveryGroup() {
+        SizedGroup first = new SizedGroup(1);
+        SizedGroup second = new SizedGroup(2);
+        IndexedGroupList list = new IndexedGroupList();
+        list.addAll(Arrays.asList(first, second));
+
+        first.itemCount = 3;
+        second.itemCount = 0;
+        list.refreshItemCounts();
+
+        assertEquals(3, list.getTotalItemCount());
+        assertEquals(0, list.indexOfItemPosition(2));
+    }
+
+    private static void assertMatches(@NonNull List<SizedGroup> expected, @NonNull IndexedGroupList list) {
+        assertEquals(expected.size(), list.size());
+        assertEquals(expected, new ArrayList<>(list));
+        int itemCount = 0;
+        for (int i = 0; i < expected.size(); i++) {
+            SizedGroup group = expected.get(i);
+            assertSame(group, list.get(i));
+            assertEquals(i, list.indexOfGroup(group));
+            assertEquals(itemCount, list.getItemCountBefore(i));
+            for (int position = itemCount; position < itemCount + group.itemCount; position++) {
+                assertEquals(i, list.indexOfItemPosition(position));
+            }
+            itemCount += group.itemCount;
+        }
+        assertEquals(itemCount, list.getTotalItemCount());
+    }
+}
@@ -0,0 +1,139 @@
+package com.xwray.groupie;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.ListUpdateCallback;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+@RunWith(MockitoJUnitRunner.class)
+public class PatchTest {
+
+    @Mock
+    GroupDataObserver observer;
+
+    @Mock
+    ListUpdateCallback listUpdateCallback;
+
+    @Test
+    public void randomPatchesTurnTheOldItemsIntoTheNewItems() {
+        Random random = new Random(17);
+        int nextId = 0;
+        for (int run = 0; run < 200; run++) {
+            IndexedGroupList groups = new IndexedGroupList();
+            int size = random.nextInt(6);
+            for (int i = 0; i < size; i++) {
+                Group group = randomSection(random, nextId);
+                group.registerGroupDataObserver(observer);
+                groups.add(group);
+                nextId += 10;
+            }
+            List<Item> oldItems = Arrays.asList(DiffCallback.flatten(groups));
+
+            List<PatchOperation> operations = new ArrayList<>();
+            List<Group> expected = new ArrayList<>(groups);
+            int operationCount = random.nextInt(6);
+            for (int k = 0; k < operationCount; k++) {
+                int choice = random.nextInt(5);
+                if (expected.isEmpty() || choice == 0) {
+                    Group group = randomSection(random, nextId);
+                    nextId += 10;
+                    int index = random.nextInt(expected.size() + 1);
+                    expected.add(index, group);
+                    operations.add(PatchOperation.insert(index, group));
+                } else if (choice == 1) {
+                    int index = random.nextInt(expected.size());
+                    expected.remove(index);
+                    operations.add(PatchOperation.remove(index));
+                } else if (choice == 2) {
+                    int from = random.nextInt(expected.size());
+                    int to = random.nextInt(expected.size());
+                    expected.add(to, expected.remove(from));
+                    operations.add(PatchOperation.move(from, to));
+                } else if (choice == 3) {
+                    operations.add(PatchOperation.change(random.nextInt(expected.size()), null));
+                } else {
+                    int index = random.nextInt(expected.size());
+                    Group replaced = expected.get(index);
+                    int firstId = replaced.getItemCount() > 0 ? (int) replaced.getItem(0).getId() : nextId;
+                    Group group = randomSection(random, firstId);
+                    nextId += 10;
+                    expected.set(index, group);
+                    operations.add(PatchOperation.replace(index, group));
+                }
+            }
+
+            ApplyingListUpdateCallback applied = new ApplyingListUpdateCallback(oldItems);
+            Patch.apply(operations, groups, observer).dispatchUpdatesTo(applied);
+
+            assertEquals(expected, new ArrayList<>(groups));
+            Item[] newItems = DiffCallback.flatten(expected);
+            assertEquals(newItems.length, applied.items.size());
+            for (int j = 0; j < newItems.length; j++) {
+                Item item = applied.items.get(j);
+                assertTrue(item == null || newItems[j].isSameAs(item));
+            }
+        }
+    }
+
+    @Test
+    public void adjacentOperationsAreCoalesced() {
+        IndexedGroupList groups = new IndexedGroupList();
+        groups.addAll(Arrays.<Group>asList(new DummyItem(1), new DummyItem(2), new DummyItem(3)));
+
+        Patch.apply(Arrays.asList(
+                PatchOperation.insert(3, new DummyItem(4)),
+                PatchOperation.insert(4, new DummyItem(5)),
+                PatchOperation.change(0, "payload"),
+                PatchOperation.change(1, "payload"),
+                PatchOperation.remove(2),
+                PatchOperation.remove(2)), groups, observer).dispatchUpdatesTo(listUpdateCallback);
+
+        verify(listUpdateCallback).onInserted(3, 2);
+        verify(listUpdateCallback).onChanged(0, 2, "payload");
+        verify(listUpdateCallback).onRemoved(2, 2);
+        verifyNoMoreInteractions(listUpdateCallback);
+    }
+
+    @Test
+    public void observerFollowsTheGroups() {
+        IndexedGroupList groups = new IndexedGroupList();
+        Section removed = new Section();
+        Section inserted = new Section();
+        groups.add(removed);
+        removed.registerGroupDataObserver(observer);
+
+        Patch.apply(Arrays.asList(PatchOperation.replace(0, inserted)), groups, observer);
+        assertSame(inserted, groups.get(0));
+
+        inserted.add(new DummyItem());
+        removed.add(new DummyItem());
+        verify(observer).onItemRangeInserted(inserted, 0, 1);
+        verifyNoMoreInteractions(observer);
+    }
+
+    @NonNull
+    private static Section randomSection(@NonNull Random random, int firstId) {
+        List<Item> items = new ArrayList<>();
+        int size = random.nextInt(4);
+        for (int i = 0; i < size; i++) {
+            items.add(new DummyItem(firstId + i));
+        }
+        if (items.isEmpty() && random.nextBoolean()) return new Section(Collections.<Group>emptyList());
+        return new Section(items);
+    }
+}
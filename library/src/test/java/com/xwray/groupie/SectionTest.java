@@ -1,5 +1,8 @@
 package com.xwray.groupie;
 
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -13,8 +16,10 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Executor;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Mockito.inOrder;
@@ -675,10 +680,37 @@ public class SectionTest {
         reset(groupAdapter);
         rootSection.removeAll(Arrays.asList(nestedSection2, nestedSection3, nestedSection1));
 
-        final InOrder adapterCalls = inOrder(groupAdapter, groupAdapter, groupAdapter);
-        adapterCalls.verify(groupAdapter).onItemRangeRemoved(rootSection, 3, 1);
-        adapterCalls.verify(groupAdapter).onItemRangeRemoved(rootSection, 3, 2);
-        adapterCalls.verify(groupAdapter).onItemRangeRemoved(rootSection, 0, 3);
+        verify(groupAdapter).onItemRangeRemoved(rootSection, 0, 6);
+        verifyNoMoreInteractions(groupAdapter);
+    }
+
+    @Test
+    public void removeAllMatchesChildrenWithEquals() {
+        Section section = new Section(Arrays.asList(new ContentUpdatingItem(1, "a"), new ContentUpdatingItem(2, "b")));
+        section.registerGroupDataObserver(groupAdapter);
+
+        section.removeAll(Collections.singletonList(new ContentUpdatingItem(2, "b")));
+
+        verify(groupAdapter).onItemRangeRemoved(section, 1, 1);
+        assertEquals(1, section.getItemCount());
+    }
+
+    @Test
+    public void removeAllNotifiesEachRunOfRemovedGroupsOnce() {
+        List<Group> groups = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            groups.add(new DummyItem());
+        }
+        Section section = new Section(new DummyItem(), groups);
+        section.registerGroupDataObserver(groupAdapter);
+
+        section.removeAll(Arrays.asList(groups.get(4), groups.get(0), groups.get(1), groups.get(5)));
+
+        final InOrder adapterCalls = inOrder(groupAdapter);
+        adapterCalls.verify(groupAdapter).onItemRangeRemoved(section, 1, 2);
+        adapterCalls.verify(groupAdapter).onItemRangeRemoved(section, 3, 2);
+        verifyNoMoreInteractions(groupAdapter);
+        assertEquals(Arrays.asList(groups.get(2), groups.get(3)), Arrays.asList(section.getGroup(1), section.getGroup(2)));
     }
 
     @Test
@@ -702,10 +734,8 @@ public class SectionTest {
         reset(groupAdapter);
         rootSection.clear();
 
-        final InOrder adapterCalls = inOrder(groupAdapter, groupAdapter, groupAdapter);
-        adapterCalls.verify(groupAdapter).onItemRangeRemoved(rootSection, 2, 3);
-        adapterCalls.verify(groupAdapter).onItemRangeRemoved(rootSection, 2, 1);
-        adapterCalls.verify(groupAdapter).onItemRangeRemoved(rootSection, 2, 2);
+        verify(groupAdapter).onItemRangeRemoved(rootSection, 2, 6);
+        verifyNoMoreInteractions(groupAdapter);
 
         assertEquals(rootSection.getItemCount(), headerSize + footerSize);
     }
@@ -729,6 +759,148 @@ public class SectionTest {
         verifyNoMoreInteractions(groupAdapter);
     }
 
+    @Test
+    public void updateReplacingMostOfTheBodyIsReportedAsBulk() {
+        List<Item> oldChildren = new ArrayList<>();
+        List<Item> newChildren = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            oldChildren.add(new DummyItem(i));
+            newChildren.add(new DummyItem(1000 + i));
+        }
+        Section group = new Section(oldChildren);
+        group.setBulkUpdateThreshold(0.5f);
+        OnUpdatePathListener listener = mock(OnUpdatePathListener.class);
+        group.setOnUpdatePathListener(listener);
+        group.registerGroupDataObserver(groupAdapter);
+
+        group.update(newChildren);
+
+        verify(listener).onUpdatePath(UpdatePath.BULK);
+        verify(groupAdapter).onItemRangeRemoved(group, 0, 100);
+        verify(groupAdapter).onItemRangeInserted(group, 0, 100);
+        verifyNoMoreInteractions(groupAdapter);
+    }
+
+    @Test
+    public void updateWithPrecalculatedDiffIsReported() {
+        List<Item> oldChildren = Collections.<Item>singletonList(new DummyItem(1));
+        List<Item> newChildren = Arrays.<Item>asList(new DummyItem(1), new DummyItem(2));
+        Section group = new Section(oldChildren);
+        OnUpdatePathListener listener = mock(OnUpdatePathListener.class);
+        group.setOnUpdatePathListener(listener);
+        DiffUtil.DiffResult diffResult = DiffUtil.calculateDiff(
+                GroupAdapter.createDiffCallback(oldChildren, newChildren));
+
+        group.update(newChildren, diffResult);
+
+        verify(listener).onUpdatePath(UpdatePath.DIFF);
+    }
+
+    @Test
+    public void updateWithDiffFromCreateDiffCallbackNotifiesLikeUpdate() {
+        List<Item> oldChildren = Arrays.<Item>asList(new ContentUpdatingItem(1, "a"),
+                new ContentUpdatingItem(2, "b"), new ContentUpdatingItem(3, "c"));
+        List<Item> newChildren = Arrays.<Item>asList(new ContentUpdatingItem(1, "a"),
+                new ContentUpdatingItem(2, "b2"), new ContentUpdatingItem(4, "d"));
+        Section diffed = new Section(oldChildren);
+        Section precalculated = new Section(oldChildren);
+        GroupDataObserver diffedObserver = mock(GroupDataObserver.class);
+        diffed.registerGroupDataObserver(diffedObserver);
+        precalculated.registerGroupDataObserver(groupAdapter);
+        DiffUtil.DiffResult diffResult = DiffUtil.calculateDiff(
+                GroupAdapter.createDiffCallback(oldChildren, newChildren));
+
+        diffed.update(newChildren);
+        precalculated.update(newChildren, diffResult);
+
+        final InOrder diffedCalls = inOrder(diffedObserver);
+        diffedCalls.verify(diffedObserver).onItemRangeRemoved(diffed, 2, 1);
+        diffedCalls.verify(diffedObserver).onItemRangeInserted(diffed, 2, 1);
+        diffedCalls.verify(diffedObserver).onItemRangeChanged(diffed, 1, 1, null);
+        verifyNoMoreInteractions(diffedObserver);
+        final InOrder precalculatedCalls = inOrder(groupAdapter);
+        precalculatedCalls.verify(groupAdapter).onItemRangeRemoved(precalculated, 2, 1);
+        precalculatedCalls.verify(groupAdapter).onItemRangeInserted(precalculated, 2, 1);
+        precalculatedCalls.verify(groupAdapter).onItemRangeChanged(precalculated, 1, 1, null);
+        verifyNoMoreInteractions(groupAdapter);
+        assertEquals(3, precalculated.getItemCount());
+        for (int i = 0; i < newChildren.size(); i++) {
+            assertSame(newChildren.get(i), precalculated.getItem(i));
+        }
+    }
+
+    @Test
+    public void batchMergesAdjacentNotifications() {
+        Section group = new Section(new DummyItem());
+        group.registerGroupDataObserver(groupAdapter);
+
+        group.beginBatch();
+        group.add(new DummyItem());
+        group.beginBatch();
+        group.add(new DummyItem());
+        group.endBatch();
+        group.add(new DummyItem());
+        verifyNoMoreInteractions(groupAdapter);
+
+        group.endBatch();
+        verify(groupAdapter).onItemRangeInserted(group, 1, 3);
+        verifyNoMoreInteractions(groupAdapter);
+    }
+
+    @Test
+    public void batchRefreshesTheEmptyStateOnlyAtTheEnd() {
+        DummyItem first = new DummyItem();
+        Section group = new Section(new DummyItem(), Collections.singletonList(first));
+        group.setPlaceholder(new DummyItem());
+        group.registerGroupDataObserver(groupAdapter);
+
+        group.beginBatch();
+        group.remove(first);
+        group.add(new DummyItem());
+        group.endBatch();
+
+        // The placeholder is never shown
+        verify(groupAdapter).onItemRangeRemoved(group, 1, 1);
+        verify(groupAdapter).onItemRangeInserted(group, 1, 1);
+        verifyNoMoreInteractions(groupAdapter);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void endBatchWithoutBeginBatchThrows() {
+        new Section().endBatch();
+    }
+
+    @Test
+    public void updateAsyncAppliesTheDiffOnTheMainThread() {
+        final List<Runnable> mainThreadTasks = new ArrayList<>();
+        Section group = new Section();
+        group.setHeader(new DummyItem());
+        group.setAsyncDiffExecutors(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        }, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                mainThreadTasks.add(command);
+            }
+        });
+        group.registerGroupDataObserver(groupAdapter);
+
+        List<Item> children = new ArrayList<>();
+        children.add(new DummyItem());
+        children.add(new DummyItem());
+        group.updateAsync(children);
+        children.clear();
+        assertEquals(1, group.getItemCount());
+        verifyNoMoreInteractions(groupAdapter);
+
+        mainThreadTasks.get(0).run();
+        verify(groupAdapter).onItemRangeInserted(group, 1, 2);
+        assertEquals(3, group.getItemCount());
+    }
+
     @Test
     public void notifyChangeInAnItemCausesParentToNotifyChange() {
         List<Item> children = new ArrayList<>();
@@ -845,4 +1017,177 @@ public class SectionTest {
         verify(groupAdapter).onItemRangeInserted(group, 1, 1);
         verifyNoMoreInteractions(groupAdapter);
     }
+
+    @Test
+    public void itemCountFollowsChangesInNestedSections() {
+        final Section rootSection = new Section();
+        rootSection.setHeader(header);
+        rootSection.registerGroupDataObserver(groupAdapter);
+
+        final Section nestedSection = new Section();
+        rootSection.add(nestedSection);
+        nestedSection.addAll(Arrays.asList(new DummyItem(), new DummyItem(), new DummyItem()));
+        assertEquals(headerSize + 3, rootSection.getItemCount());
+
+        final Item removedItem = nestedSection.getItem(1);
+        nestedSection.remove(removedItem);
+        assertEquals(headerSize + 2, rootSection.getItemCount());
+
+        nestedSection.setFooter(footer);
+        assertEquals(headerSize + 2 + footerSize, rootSection.getItemCount());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void consistencyChecksDetectChildrenChangingSizeWithoutNotifying() {
+        final List<Item> items = new ArrayList<>();
+        items.add(new DummyItem());
+        Group silentGroup = new DummyGroup() {
+            @Override
+            public int getItemCount() {
+                return items.size();
+            }
+        };
+
+        Section section = new Section();
+        section.add(silentGroup);
+        section.registerGroupDataObserver(groupAdapter);
+        items.add(new DummyItem());
+
+        NestedGroup.setConsistencyChecksEnabled(true);
+        try {
+            section.getItemCount();
+        } finally {
+            NestedGroup.setConsistencyChecksEnabled(false);
+        }
+    }
+
+    @Test
+    public void childPositionIsFoundByIdentityNotEquality() {
+        ContentUpdatingItem first = new ContentUpdatingItem(1, "same");
+        ContentUpdatingItem second = new ContentUpdatingItem(2, "same");
+
+        Section section = new Section(new DummyItem());
+        section.addAll(Arrays.asList(first, second));
+        section.registerGroupDataObserver(groupAdapter);
+
+        assertEquals(2, section.getPosition(second));
+
+        section.remove(second);
+        verify(groupAdapter).onItemRangeRemoved(section, 2, 1);
+        assertEquals(2, section.getItemCount());
+        assertSame(first, section.getItem(1));
+    }
+
+    @Test
+    public void getItemSkipsEmptyChildren() {
+        DummyItem first = new DummyItem();
+        DummyItem second = new DummyItem();
+        DummyItem footerItem = new DummyItem();
+
+        Section section = new Section();
+        section.addAll(Arrays.asList(new Section(), first, new Section(), new Section(), second));
+        section.setFooter(footerItem);
+
+        assertSame(first, section.getItem(0));
+        assertSame(second, section.getItem(1));
+        assertSame(footerItem, section.getItem(2));
+    }
+
+    @Test
+    public void notifiesEveryRegisteredObserver() {
+        GroupDataObserver other = mock(GroupDataObserver.class);
+        Section group = new Section();
+        group.registerGroupDataObserver(groupAdapter);
+        group.registerGroupDataObserver(other);
+
+        group.add(new DummyItem());
+
+        verify(groupAdapter).onItemRangeInserted(group, 0, 1);
+        verify(other).onItemRangeInserted(group, 0, 1);
+    }
+
+    @Test
+    public void unregisteredObserverIsNotNotified() {
+        GroupDataObserver other = mock(GroupDataObserver.class);
+        GroupDataObserver third = mock(GroupDataObserver.class);
+        Section group = new Section();
+        group.registerGroupDataObserver(groupAdapter);
+        group.registerGroupDataObserver(other);
+        group.registerGroupDataObserver(third);
+        group.unregisterGroupDataObserver(other);
+        group.unregisterGroupDataObserver(groupAdapter);
+
+        group.add(new DummyItem());
+
+        verify(third).onItemRangeInserted(group, 0, 1);
+        verifyNoMoreInteractions(groupAdapter, other);
+    }
+
+    @Test
+    public void observerMayUnregisterItselfWhileNotified() {
+        final Section group = new Section();
+        GroupDataObserver other = mock(GroupDataObserver.class);
+        GroupDataObserver unregistering = new Section() {
+            @Override
+            public void onItemRangeInserted(@NonNull Group group, int positionStart, int itemCount) {
+                group.unregisterGroupDataObserver(this);
+            }
+        };
+        group.registerGroupDataObserver(other);
+        group.registerGroupDataObserver(unregistering);
+
+        group.add(new DummyItem());
+
+        verify(other).onItemRangeInserted(group, 0, 1);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void registeringAnObserverTwiceThrows() {
+        Section group = new Section();
+        group.registerGroupDataObserver(groupAdapter);
+        group.registerGroupDataObserver(groupAdapter);
+    }
+
+    @Test
+    public void parentObserverIsTheOnlyObserver() {
+        Section group = new Section();
+        group.registerGroupDataObserver(groupAdapter);
+        assertSame(groupAdapter, group.getParentObserver());
+
+        GroupDataObserver other = mock(GroupDataObserver.class);
+        group.registerGroupDataObserver(other);
+        assertEquals(null, group.getParentObserver());
+
+        group.unregisterGroupDataObserver(groupAdapter);
+        assertSame(other, group.getParentObserver());
+    }
+
+    @Test
+    public void applyPatchNotifiesBodyPositions() {
+        DummyItem first = new DummyItem();
+        Section group = new Section(header, Collections.singletonList(first));
+        group.registerGroupDataObserver(groupAdapter);
+        DummyItem inserted = new DummyItem();
+
+        group.applyPatch(Arrays.asList(
+                PatchOperation.insert(1, inserted),
+                PatchOperation.remove(0)));
+
+        verify(groupAdapter).onItemRangeRemoved(group, headerSize, 1);
+        verify(groupAdapter).onItemRangeInserted(group, headerSize + 1, 1);
+        verifyNoMoreInteractions(groupAdapter);
+        assertSame(inserted, group.getGroup(1));
+        assertEquals(headerSize + 1, group.getItemCount());
+    }
+
+    @Test
+    public void applyPatchRefreshesTheEmptyState() {
+        DummyItem first = new DummyItem();
+        Section group = new Section(Collections.singletonList(first));
+        group.setPlaceholder(placeholder);
+
+        group.applyPatch(Collections.singletonList(PatchOperation.remove(0)));
+
+        assertEquals(placeholderSize, group.getItemCount());
+    }
 }
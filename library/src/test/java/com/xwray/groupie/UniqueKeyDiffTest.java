@@ -0,0 +1,107 @@
+package com.xwray.groupie;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class UniqueKeyDiffTest {
+
+    private static class SameAsItem extends DummyItem {
+        SameAsItem(long id) {
+            super(id);
+        }
+
+        @Override
+        public boolean isSameAs(Item other) {
+            return other.getId() == getId();
+        }
+    }
+
+    @Test
+    public void randomUpdatesTurnTheOldListIntoTheNewList() {
+        Random random = new Random(7);
+        for (int run = 0; run < 300; run++) {
+            List<Item> oldItems = new ArrayList<>();
+            int oldSize = random.nextInt(30);
+            for (int i = 0; i < oldSize; i++) {
+                oldItems.add(new ContentUpdatingItem(i, "a"));
+            }
+            List<Item> newItems = new ArrayList<>();
+            for (Item item : oldItems) {
+                if (random.nextInt(4) == 0) continue;
+                newItems.add(random.nextInt(3) == 0 ? new ContentUpdatingItem((int) item.getId(), "b") : item);
+            }
+            int insertCount = random.nextInt(5);
+            for (int i = 0; i < insertCount; i++) {
+                newItems.add(random.nextInt(newItems.size() + 1), new ContentUpdatingItem(100 + i, "a"));
+            }
+            if (random.nextBoolean()) Collections.shuffle(newItems, random);
+
+            for (boolean detectMoves : new boolean[]{true, false}) {
+                DiffCallback callback = new DiffCallback(oldItems, newItems);
+                UniqueKeyDiff diff = UniqueKeyDiff.calculate(callback, detectMoves);
+                assertNotNull(diff);
+                ApplyingListUpdateCallback applied = new ApplyingListUpdateCallback(oldItems);
+                diff.dispatchUpdatesTo(applied);
+
+                assertEquals(newItems.size(), applied.items.size());
+                for (int j = 0; j < newItems.size(); j++) {
+                    Item item = applied.items.get(j);
+                    if (item != null) {
+                        assertTrue(newItems.get(j).isSameAs(item));
+                        assertEquals(!newItems.get(j).equals(item), applied.changedPositions.contains(j));
+                    } else {
+                        assertTrue(newItems.get(j).getId() >= 100 || !detectMoves);
+                    }
+                }
+                if (!detectMoves) assertEquals(0, applied.moveCount);
+            }
+        }
+    }
+
+    @Test
+    public void movingOneItemToTheEndIsOneMove() {
+        List<Item> oldItems = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            oldItems.add(new DummyItem(i));
+        }
+        List<Item> newItems = new ArrayList<>(oldItems.subList(1, 10));
+        newItems.add(oldItems.get(0));
+
+        ApplyingListUpdateCallback applied = new ApplyingListUpdateCallback(oldItems);
+        UniqueKeyDiff.calculate(new DiffCallback(oldItems, newItems), true).dispatchUpdatesTo(applied);
+
+        assertEquals(1, applied.moveCount);
+        assertArrayEquals(newItems.toArray(), applied.items.toArray());
+    }
+
+    @Test
+    public void duplicateKeysFallBack() {
+        List<Item> oldItems = Arrays.<Item>asList(new DummyItem(1), new DummyItem(1));
+        List<Item> newItems = Collections.<Item>singletonList(new DummyItem(1));
+        assertNull(UniqueKeyDiff.calculate(new DiffCallback(oldItems, newItems), true));
+        assertNull(UniqueKeyDiff.calculate(new DiffCallback(newItems, oldItems), true));
+    }
+
+    @Test
+    public void overriddenIsSameAsFallsBack() {
+        List<Item> items = Collections.<Item>singletonList(new SameAsItem(1));
+        assertNull(UniqueKeyDiff.calculate(new DiffCallback(items, items), true));
+    }
+
+    @Test
+    public void longestIncreasingSubsequence() {
+        boolean[] result = UniqueKeyDiff.longestIncreasingSubsequence(new int[]{3, 0, 4, 1, 2, 5});
+        assertArrayEquals(new boolean[]{false, true, false, true, true, true}, result);
+    }
+}
@@ -6,6 +6,8 @@ import org.junit.Test;
 
 import androidx.annotation.NonNull;
 
+import java.util.Collections;
+
 public class ViewTypeTest {
 
     @Test
@@ -20,6 +22,41 @@ public class ViewTypeTest {
         Assert.assertEquals(item.getViewType(), 20);
     }
 
+    @Test
+    public void viewTypeNeverLookedUpIsFoundInTheAdapter() {
+        GroupAdapter<ViewHolder> groupAdapter = new GroupAdapter<>();
+        groupAdapter.setDeferUpdatesWhileDetached(true);
+        Item item = new ItemWithoutViewTypeOverride(2);
+        groupAdapter.add(new ItemWithoutViewTypeOverride(1));
+        groupAdapter.add(item);
+
+        Assert.assertSame(item, groupAdapter.getItemForViewType(2));
+    }
+
+    @Test
+    public void registeredViewTypeIsFoundBeforeAnyLookup() {
+        GroupAdapter<ViewHolder> groupAdapter = new GroupAdapter<>();
+        groupAdapter.setDeferUpdatesWhileDetached(true);
+        Item<ViewHolder> prototype = new ItemWithoutViewTypeOverride(7);
+        groupAdapter.add(new ItemWithoutViewTypeOverride(1));
+
+        groupAdapter.registerViewType(prototype);
+
+        Assert.assertSame(prototype, groupAdapter.getItemForViewType(7));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void lookedUpItemsAreForgottenWhenGroupsAreReplaced() {
+        GroupAdapter<ViewHolder> groupAdapter = new GroupAdapter<>();
+        groupAdapter.setDeferUpdatesWhileDetached(true);
+        groupAdapter.add(new ItemWithoutViewTypeOverride(1));
+        groupAdapter.getItemViewType(0);
+
+        groupAdapter.update(Collections.singletonList(new ItemWithoutViewTypeOverride(2)));
+
+        groupAdapter.getItemForViewType(1);
+    }
+
     static class ItemWithoutViewTypeOverride extends Item<ViewHolder> {
         private final int layout;
 